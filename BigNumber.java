@@ -1,5 +1,7 @@
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
@@ -10,12 +12,25 @@ import java.util.NoSuchElementException;
  * @author G94
  */
 public class BigNumber {
-    private List<Long> number;
+    long[] number; /* words stored from LSD -> MSD */
+    int size; /* number of words in use, including leading zeros */
     public final long base;
+    /*
+     * log2(base) when the base is a power of two, 0 otherwise. With a binary
+     * radix the kernels take carries with shifts and masks instead of '/' and
+     * '%'.
+     */
+    final int bits;
+    final long mask; /* base - 1, valid only when bits != 0 */
     public Sign sign;
     public int words;
 
-    public static long DEFAULT_BASE = (long) Math.sqrt(Long.MAX_VALUE);
+    /* Largest binary radix whose word products still fit in 64 bits */
+    public static final long BINARY_BASE = 1L << 32;
+    /* Largest decimal friendly radix whose word products fit in a long */
+    public static final long DECIMAL_BASE = (long) Math.sqrt(Long.MAX_VALUE);
+
+    public static long DEFAULT_BASE = BINARY_BASE;
 
     BigNumber() {
 	this(null, DEFAULT_BASE, Sign.PLUS);
@@ -38,52 +53,91 @@ public class BigNumber {
     }
 
     BigNumber(List<Long> number, long base, Sign sign) {
-	this.number = new ArrayList<>();
+	this.number = new long[number == null ? 0 : number.size()];
 	if (number != null)
 	    addWords(number);
 	this.base = base;
+	this.bits = radixBits(base);
+	this.mask = base - 1;
 	this.sign = sign;
     }
 
     BigNumber(long number, long base, Sign sign) {
-	this.number = new ArrayList<>();
+	this.number = new long[2];
 	while (number >= base) {
 	    addWord(number % base);
 	    number /= base;
 	}
 	addWord(number);
 	this.base = base;
+	this.bits = radixBits(base);
+	this.mask = base - 1;
 	this.sign = sign;
     }
 
     BigNumber(String s) {
-	BigNumber nBaseB = new BigNumber();
-	BigNumber tenBaseB = new BigNumber(10);
-	for (Character c : s.toCharArray()) {
-	    /*
-	     * n = s[0]*base^n + s[1]*base^n-1 + ... + s[n-1]*base^1 + s[n]
-	     * 
-	     * n = (s[0]*base^n-1 + s[1]*base^n-2 + ... + s[n-1]) * base + s[n]
-	     */
-	    int digit = Character.getNumericValue(c);
-	    nBaseB = add(product(nBaseB, tenBaseB), new BigNumber(digit));
-	}
+	/*
+	 * n = s[0]*10^n + s[1]*10^n-1 + ... + s[n-1]*10^1 + s[n], evaluated by
+	 * splitting the digits recursively, see Conversion.parse
+	 */
+	BigNumber nBaseB = Conversion.parse(s, DEFAULT_BASE);
 	this.number = nBaseB.number;
+	this.size = nBaseB.size;
 	this.words = nBaseB.words;
 	this.base = DEFAULT_BASE;
+	this.bits = radixBits(base);
+	this.mask = base - 1;
 	this.sign = Sign.PLUS;
     }
 
-    /* Size of the underlying list */
+    /*
+     * Wrap the first 'size' words of the given array, LSD -> MSD, without
+     * copying. Used by the arithmetic kernels to hand over their result.
+     */
+    BigNumber(long[] number, int size, long base, Sign sign) {
+	this.number = number;
+	this.size = size;
+	this.words = significantWords(number, size);
+	this.base = base;
+	this.bits = radixBits(base);
+	this.mask = base - 1;
+	this.sign = sign;
+    }
+
+    /*
+     * Number of bits per word if 'base' is a power of two small enough for
+     * the product of two words to fit in an unsigned long, 0 otherwise
+     */
+    static int radixBits(long base) {
+	if (base < 2 || base > BINARY_BASE || (base & (base - 1)) != 0)
+	    return 0;
+	return Long.numberOfTrailingZeros(base);
+    }
+
+    /* Number of words in x[0..length) leaving out the leading zeros */
+    static int significantWords(long[] x, int length) {
+	while (length > 0 && x[length - 1] == 0)
+	    length--;
+	return length;
+    }
+
+    /* Size of the underlying array in use */
     public int size() {
-	return number.size();
+	return size;
+    }
+
+    /* Grow the underlying array to hold atleast 'capacity' words */
+    void ensureCapacity(int capacity) {
+	if (capacity > number.length)
+	    number = Arrays.copyOf(number, Math.max(capacity, number.length + (number.length >> 1) + 2));
     }
 
     /* Add a word(digit) to the end of the list */
     public void addWord(long value) {
-	number.add(value);
+	ensureCapacity(size + 1);
+	number[size++] = value;
 	if (value != 0)
-	    words = number.size();
+	    words = size;
     }
 
     /* Add a list of words(digits) to the end of the list */
@@ -94,109 +148,134 @@ public class BigNumber {
 
     /* Add zeros to the least significant side of the number */
     public void addLSZeros(int count) {
-	words += count;
-	while (count > 0) {
-	    number.add(0, 0L);
-	    count--;
-	}
+	if (count <= 0)
+	    return;
+	ensureCapacity(size + count);
+	System.arraycopy(number, 0, number, count, size);
+	Arrays.fill(number, 0, count, 0L);
+	size += count;
+	if (words != 0)
+	    words += count;
     }
 
     /* Add zeros to the most significant side of the number */
     public void addMSZeros(int count) {
-	while (count > 0) {
-	    number.add(0L);
-	    count--;
-	}
+	if (count <= 0)
+	    return;
+	ensureCapacity(size + count);
+	Arrays.fill(number, size, size + count, 0L);
+	size += count;
     }
 
     /* Return the least significant word */
     public long getLSW() {
-	return number.get(0);
+	return number[0];
     }
 
     /* Return the most significant word */
     public long getMSW() {
-	return number.get(words - 1);
+	return number[words - 1];
     }
 
-    /* Compare this number with the given number 'b' */
+    /*
+     * Compare this number with the given number 'b', by the signs and then by
+     * the words from the MSD, without computing their difference
+     */
     public int compare(BigNumber b) {
-	if (this.words > b.words)
-	    return 1;
-	if (this.words < b.words)
-	    return -1;
+	int thisSign = this.words == 0 ? 0 : this.sign.value;
+	int bSign = b.words == 0 ? 0 : b.sign.value;
+	if (thisSign != bSign)
+	    return thisSign > bSign ? 1 : -1;
+	return thisSign * compareMagnitude(this, b);
+    }
 
-	BigNumber difference = subtract(this, b);
-	if (difference.words == 0)
-	    return 0;
-	return difference.sign.value;
+    /* Compare the magnitudes of 'a' and 'b' from the MSD */
+    static int compareMagnitude(BigNumber a, BigNumber b) {
+	if (a.words != b.words)
+	    return a.words > b.words ? 1 : -1;
+	long[] x = a.number, y = b.number;
+	for (int i = a.words - 1; i >= 0; i--)
+	    if (x[i] != y[i])
+		return x[i] > y[i] ? 1 : -1;
+	return 0;
     }
 
     /* Convert this BigNumber from current base to given base B */
     public BigNumber toBase(long B) {
-	ListIterator<Long> wIterator = number.listIterator(words);
-	BigNumber nBaseB = new BigNumber(null, B);
-	BigNumber bBaseB = new BigNumber(base, B);
-	while (wIterator.hasPrevious()) {
-	    /*
-	     * n = s[0]*base^n + s[1]*base^n-1 + ... + s[n-1]*base^1 + s[n]
-	     * 
-	     * n = (s[0]*base^n-1 + s[1]*base^n-2 + ... + s[n-1]) * base + s[n]
-	     */
-	    long word = wIterator.previous();
-	    nBaseB = add(product(nBaseB, bBaseB), new BigNumber(word, B));
-	}
-	return nBaseB;
+	return Conversion.toBase(this, B);
     }
 
     /* Print the number in decimal system (Base 10) */
     public String toString() {
-	if (words == 0)
-	    return "0";
-
-	BigNumber nBase10 = null;
-	if (base == 10)
-	    /* Number already in Base 10 */
-	    nBase10 = this;
-	else
-	    /* Convert number from current base to base 10 */
-	    nBase10 = toBase(10);
-
-	StringBuilder sb = new StringBuilder();
-	if (sign == Sign.MINUS)
-	    /* Negative number */
-	    sb.append("-");
-	ListIterator<Long> wIterator = nBase10.number.listIterator(nBase10.words);
-	while (wIterator.hasPrevious())
-	    /* Print the digits from MSD -> LSD */
-	    sb.append(wIterator.previous());
-	return sb.toString();
+	return Conversion.toString(this);
+    }
+
+    /*
+     * Write the decimal digits of this number into the sink, a few words at a
+     * time, without building its String
+     */
+    public void writeTo(Sink out) {
+	Conversion.write(this, out);
+    }
+
+    /* Write the decimal digits of this number to the stream and flush it */
+    public void writeTo(OutputStream out) {
+	Sink sink = new Sink(out);
+	writeTo(sink);
+	sink.flush();
+    }
+
+    /* Write the decimal digits of this number to the stream, e.g. System.out */
+    public void writeTo(PrintStream out) {
+	writeTo((OutputStream) out);
+    }
+
+    /* Write the decimal digits of this number to the channel */
+    public void writeTo(WritableByteChannel out) {
+	Sink sink = new Sink(out);
+	writeTo(sink);
+	sink.flush();
+    }
+
+    /* Append the decimal digits of this number, e.g. to a Writer */
+    public void writeTo(Appendable out) {
+	Sink sink = Sink.appending(out);
+	writeTo(sink);
+	sink.flush();
     }
 
     /* Print the underlying list of words in LSD -> MSD order */
     public void printList() {
-	StringBuilder sb = new StringBuilder();
-	sb.append(base + ":");
+	Sink out = new Sink(System.out);
+	printList(out);
+	out.flush();
+    }
+
+    /*
+     * Write the underlying list of words in LSD -> MSD order into the sink,
+     * followed by a new line
+     */
+    public void printList(Sink out) {
+	out.write(base).write(':');
 	if (words == 0) {
-	    sb.append("0");
+	    out.write('0');
 
 	} else {
-	    Iterator<Long> wIterator = wordIterator();
-	    while (wIterator.hasNext())
+	    for (int i = 0; i < words; i++)
 		/* Print the digits from LSD -> MSD */
-		sb.append(wIterator.next() + " ");
+		out.write(number[i]).write(' ');
 	    if (sign == Sign.MINUS)
 		/* Negative number */
-		sb.append("-");
+		out.write('-');
 
 	}
-	System.out.println(sb);
+	out.newLine();
     }
 
     /* Create a similar BigNumber with the same value as this */
     @Override
     public BigNumber clone() {
-	return new BigNumber(number, base, sign);
+	return new BigNumber(Arrays.copyOf(number, size), size, base, sign);
     }
 
     /*
@@ -204,7 +283,7 @@ public class BigNumber {
      * -> MSD
      */
     public ListIterator<Long> wordIterator() {
-	return new WordIterator(number.listIterator());
+	return new WordIterator(0);
     }
 
     /*
@@ -212,12 +291,40 @@ public class BigNumber {
      * initialized to index
      */
     public ListIterator<Long> wordIterator(int index) {
-	return new WordIterator(number.listIterator(index));
+	return new WordIterator(index);
     }
 
     /* Create a new BigNumber with numbers between from and to indices */
     public BigNumber splitByIndex(int from, int to) {
-	return new BigNumber(number.subList(from, to), base, sign);
+	return new BigNumber(Arrays.copyOfRange(number, from, to), to - from, base, sign);
+    }
+
+    /* Positive BigNumber made of the words x[from..to) */
+    static BigNumber words(BigNumber x, int from, int to) {
+	to = Math.min(to, x.words);
+	if (from >= to)
+	    return new BigNumber(0, x.base);
+	return new BigNumber(Arrays.copyOfRange(x.number, from, to), to - from, x.base, Sign.PLUS);
+    }
+
+    /* Positive BigNumber 'x' * base^k */
+    static BigNumber shiftWords(BigNumber x, int k) {
+	long[] z = new long[x.words + k];
+	System.arraycopy(x.number, 0, z, k, x.words);
+	return new BigNumber(z, z.length, x.base, Sign.PLUS);
+    }
+
+    /*
+     * Positive BigNumber 'high' * base^k + x[from..from+k), the words of 'x'
+     * below the shifted 'high' copied into one new array
+     */
+    static BigNumber join(BigNumber high, BigNumber x, int from, int k) {
+	long[] z = new long[k + high.words];
+	int to = Math.min(from + k, x.words);
+	if (from < to)
+	    System.arraycopy(x.number, from, z, 0, to - from);
+	System.arraycopy(high.number, 0, z, k, high.words);
+	return new BigNumber(z, z.length, high.base, Sign.PLUS);
     }
 
     /* Add given numbers 'a' and 'b' */
@@ -235,6 +342,16 @@ public class BigNumber {
 	return Product.product(a, b);
     }
 
+    /* Multiply all the given numbers */
+    public static BigNumber productOf(List<BigNumber> factors) {
+	return Product.productOf(factors);
+    }
+
+    /* Square of number 'a' */
+    public static BigNumber square(BigNumber a) {
+	return Product.square(a);
+    }
+
     /* Number 'a' raised to the power 'b' */
     public static BigNumber power(BigNumber a, long b) {
 	return Product.power(a, b);
@@ -260,6 +377,11 @@ public class BigNumber {
 	return Division.divide(a, b).remainder;
     }
 
+    /* Number 'a' raised to the power 'b', modulo 'm' */
+    public static BigNumber modPower(BigNumber a, BigNumber b, BigNumber m) {
+	return Division.modPower(a, b, m);
+    }
+
     /* Square root of number 'a' */
     public static BigNumber squareRoot(BigNumber a) {
 	return Division.squareRoot(a);
@@ -267,64 +389,81 @@ public class BigNumber {
 
     /**
      * An Iterator for external classes to access only the significant words in
-     * the list leaving out the leading zeros of any
+     * the array leaving out the leading zeros of any. This is only a
+     * compatibility view over the primitive array, the arithmetic kernels index
+     * the array directly.
      */
     private class WordIterator implements ListIterator<Long> {
-	ListIterator<Long> iterator;
+	int cursor; /* index of the word returned by next() */
+	int lastReturned = -1; /* index of the word returned last */
 
-	public WordIterator(ListIterator<Long> iterator) {
+	public WordIterator(int index) {
 	    super();
-	    this.iterator = iterator;
+	    this.cursor = index;
 	}
 
 	@Override
 	public void add(Long e) {
-	    iterator.add(e);
-	    if (e != 0)
-		words = number.size();
+	    ensureCapacity(size + 1);
+	    System.arraycopy(number, cursor, number, cursor + 1, size - cursor);
+	    number[cursor++] = e;
+	    size++;
+	    words = significantWords(number, size);
+	    lastReturned = -1;
 	}
 
 	@Override
 	public boolean hasNext() {
-	    return iterator.nextIndex() < words;
+	    return cursor < words;
 	}
 
 	@Override
 	public boolean hasPrevious() {
-	    return iterator.hasPrevious();
+	    return cursor > 0;
 	}
 
 	@Override
 	public Long next() {
 	    if (hasNext())
-		return iterator.next();
+		return number[lastReturned = cursor++];
 	    throw new NoSuchElementException("The list has reached the last significant word");
 	}
 
 	@Override
 	public int nextIndex() {
-	    return iterator.nextIndex();
+	    return cursor;
 	}
 
 	@Override
 	public Long previous() {
-	    return iterator.previous();
+	    if (hasPrevious())
+		return number[lastReturned = --cursor];
+	    throw new NoSuchElementException("The list has reached the first word");
 	}
 
 	@Override
 	public int previousIndex() {
-	    return iterator.previousIndex();
+	    return cursor - 1;
 	}
 
 	@Override
 	public void remove() {
-	    iterator.remove();
-	    words = Math.min(words, number.size());
+	    if (lastReturned < 0)
+		throw new IllegalStateException();
+	    System.arraycopy(number, lastReturned + 1, number, lastReturned, size - lastReturned - 1);
+	    number[--size] = 0;
+	    if (lastReturned < cursor)
+		cursor--;
+	    words = significantWords(number, Math.min(words, size));
+	    lastReturned = -1;
 	}
 
 	@Override
 	public void set(Long e) {
-	    iterator.set(e);
+	    if (lastReturned < 0)
+		throw new IllegalStateException();
+	    number[lastReturned] = e;
+	    words = significantWords(number, size);
 	}
     }
 }
\ No newline at end of file
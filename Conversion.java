@@ -0,0 +1,284 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to implement conversion of BigNumbers between decimal strings and
+ * bases, by divide and conquer over cached powers of the radix
+ *
+ * @author G94
+ */
+public class Conversion {
+	/* Number of decimal digits read into a single word, 10^9 < 2^30 */
+	public static final int CHUNK_DIGITS = 9;
+	public static final long CHUNK_RADIX = 1000000000L;
+
+	/* Number of digits below which parsing is done one chunk at a time */
+	public static int PARSE_THRESHOLD = 200 * CHUNK_DIGITS;
+	/* Number of words below which conversion is done one word at a time */
+	public static int CONVERT_THRESHOLD = 40;
+
+	/* Tables of radix^(2^k) in a given base, shared between calls */
+	private static final List<PowerTable> tables = new ArrayList<>();
+
+	/*
+	 * Class to store the powers radix^(2^k), k = 0, 1, 2, ... of a radix in a
+	 * base. The powers are computed on first use by repeated squaring.
+	 */
+	static class PowerTable {
+		public final long radix;
+		public final long base;
+		private final List<BigNumber> powers = new ArrayList<>();
+
+		private PowerTable(long radix, long base) {
+			this.radix = radix;
+			this.base = base;
+			powers.add(new BigNumber(radix, base));
+		}
+
+		/* radix^(2^k) in the base of this table */
+		public synchronized BigNumber power(int k) {
+			while (powers.size() <= k) {
+				BigNumber last = powers.get(powers.size() - 1);
+				powers.add(Product.product(last, last));
+			}
+			return powers.get(k);
+		}
+	}
+
+	/* Table of the powers radix^(2^k) in the given base */
+	static PowerTable powerTable(long radix, long base) {
+		synchronized (tables) {
+			for (PowerTable table : tables)
+				if (table.radix == radix && table.base == base)
+					return table;
+			PowerTable table = new PowerTable(radix, base);
+			tables.add(table);
+			return table;
+		}
+	}
+
+	/*
+	 * Parse the decimal digits of 's' into a BigNumber of the given base. The
+	 * digits are split so that the lower part has CHUNK_DIGITS*2^k digits, and
+	 * the halves are joined as high * 10^(CHUNK_DIGITS*2^k) + low with a
+	 * cached power. This costs O(M(n) log(n)) for M(n) the cost of a product.
+	 */
+	public static BigNumber parse(CharSequence s, long base) {
+		return parse(s, 0, s.length(), powerTable(CHUNK_RADIX, base));
+	}
+
+	/* Parse the digits s[from..to) using the powers of 10^9 in 'ten' */
+	private static BigNumber parse(CharSequence s, int from, int to, PowerTable ten) {
+		int digits = to - from;
+		if (digits <= PARSE_THRESHOLD)
+			return parseByChunks(s, from, to, ten.base);
+
+		int k = 0;
+		while ((long) CHUNK_DIGITS << (k + 1) < digits)
+			k++;
+		int middle = to - (CHUNK_DIGITS << k);
+		/* s = high * 10^(9*2^k) + low */
+		BigNumber high = parse(s, from, middle, ten);
+		BigNumber low = parse(s, middle, to, ten);
+		return Sum.add(Product.product(high, ten.power(k)), low);
+	}
+
+	/*
+	 * Parse the digits s[from..to) by reading CHUNK_DIGITS digits at a time
+	 * into a single word
+	 */
+	private static BigNumber parseByChunks(CharSequence s, int from, int to, long base) {
+		BigNumber n = new BigNumber(null, base);
+		/* The first chunk takes the digits left over by the full chunks */
+		int end = from + (to - from) % CHUNK_DIGITS;
+		if (end == from)
+			end += CHUNK_DIGITS;
+		long scale = 1;
+		for (int i = from; i < end; i++)
+			scale *= 10;
+		while (from < to) {
+			long chunk = 0;
+			for (int i = from; i < end; i++)
+				chunk = chunk * 10 + (s.charAt(i) - '0');
+			/*
+			 * n = (s[0..9)*10^9(k-1) + ... + s[9(k-2)..9(k-1))) * 10^9 +
+			 * s[9(k-1)..9k)
+			 */
+			n = Sum.add(Product.product(n, scale), new BigNumber(chunk, base));
+			from = end;
+			end += CHUNK_DIGITS;
+			scale = CHUNK_RADIX;
+		}
+		return n;
+	}
+
+	/*
+	 * Convert BigNumber 'n' to the given base B. The number is split as n = q *
+	 * B^(2^k) + r with B^(2^k) close to the square root of n, so r fills
+	 * exactly 2^k words of the result and q the words above it. Both halves
+	 * are converted recursively, with the powers of B cached between calls.
+	 */
+	public static BigNumber toBase(BigNumber n, long B) {
+		if (n.base == B)
+			return n.clone();
+
+		/* Upper bound on the number of words of n in base B */
+		int size = (int) (n.words * (Math.log(n.base) / Math.log(B))) + 2;
+		long[] out = new long[size];
+		/* Convert the magnitude, the sign is put back on the result */
+		BigNumber magnitude = new BigNumber(n.number, n.words, n.base, Sign.PLUS);
+		toBase(magnitude, out, 0, powerTable(B, n.base));
+		return new BigNumber(out, size, B, n.sign);
+	}
+
+	/*
+	 * Write the words of positive BigNumber 'n' in the base of 'table' into
+	 * out[offset..), from the LSD to the MSD
+	 */
+	private static void toBase(BigNumber n, long[] out, int offset, PowerTable table) {
+		int k = n.words <= CONVERT_THRESHOLD ? -1 : split(n, table);
+		if (k < 0) {
+			toBaseByWords(n, out, offset, table.radix);
+			return;
+		}
+
+		/* n = q * B^(2^k) + r, 0 <= r < B^(2^k) */
+		Division.Result qr = Division.divide(n, table.power(k));
+		toBase(qr.remainder, out, offset, table);
+		toBase(qr.quotient, out, offset + (1 << k), table);
+	}
+
+	/*
+	 * Largest k such that the power radix^(2^k) of 'table' has atmost half
+	 * the words of 'n', or -1 if even radix^1 has as many words as n. The
+	 * remainder of n by the power is then shorter than n, so a recursive
+	 * split always makes progress; without one n is converted by words.
+	 */
+	private static int split(BigNumber n, PowerTable table) {
+		if (table.power(0).words >= n.words)
+			return -1;
+		int k = 0;
+		while (table.power(k + 1).words * 2 <= n.words)
+			k++;
+		return k;
+	}
+
+	/*
+	 * Write the words of positive BigNumber 'n' in base B into out[offset..)
+	 * one word at a time
+	 */
+	private static void toBaseByWords(BigNumber n, long[] out, int offset, long B) {
+		if (B < n.base) {
+			/* Peel off the LSD in base B by repeated division by B */
+			while (n.words != 0) {
+				Division.Result qr = Division.divide(n, B);
+				out[offset++] = qr.remainder.words == 0 ? 0 : qr.remainder.getLSW();
+				n = qr.quotient;
+			}
+			return;
+		}
+
+		BigNumber nBaseB = new BigNumber(null, B);
+		for (int i = n.words - 1; i >= 0; i--) {
+			/*
+			 * n = s[0]*base^n + s[1]*base^n-1 + ... + s[n-1]*base^1 + s[n]
+			 * 
+			 * n = (s[0]*base^n-1 + s[1]*base^n-2 + ... + s[n-1]) * base + s[n]
+			 */
+			nBaseB = Sum.add(Product.product(nBaseB, n.base), new BigNumber(n.number[i], B));
+		}
+		System.arraycopy(nBaseB.number, 0, out, offset, nBaseB.words);
+	}
+
+	/*
+	 * Number of decimal digits in one word if the base is a power of 10, 0
+	 * otherwise
+	 */
+	static int decimalDigits(long base) {
+		int digits = 0;
+		for (; base > 1 && base % 10 == 0; base /= 10)
+			digits++;
+		return base == 1 ? digits : 0;
+	}
+
+	/* Decimal representation of BigNumber 'n' */
+	public static String toString(BigNumber n) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Sink out = new Sink(bytes, n.words * 10 + 2);
+		write(n, out);
+		out.flush();
+		return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * Write the decimal digits of BigNumber 'n' into the sink, from the MSD.
+	 * A number in a base 10^d has its words written as they are. Any other
+	 * number is split as n = q * 10^(9*2^k) + r with the cached powers as in
+	 * toBase, q is written first and then r padded to 9*2^k digits, so that
+	 * the digits go out a leaf at a time and neither the whole number in base
+	 * 10^9 nor a String of it is ever held.
+	 */
+	public static void write(BigNumber n, Sink out) {
+		if (n.words == 0) {
+			out.write('0');
+			return;
+		}
+
+		if (n.sign == Sign.MINUS)
+			/* Negative number */
+			out.write('-');
+		int digits = decimalDigits(n.base);
+		if (digits != 0) {
+			/* Write the words from MSD -> LSD, padding all but the MSD with zeros */
+			out.write(n.getMSW());
+			for (int i = n.words - 2; i >= 0; i--)
+				out.write(n.number[i], digits);
+			return;
+		}
+		BigNumber magnitude = new BigNumber(n.number, n.words, n.base, Sign.PLUS);
+		write(magnitude, 0, out, powerTable(CHUNK_RADIX, n.base));
+	}
+
+	/*
+	 * Write the digits of positive BigNumber 'n' padded with zeros to
+	 * 'width' digits, a multiple of CHUNK_DIGITS, or without padding for a
+	 * width of 0
+	 */
+	private static void write(BigNumber n, int width, Sink out, PowerTable ten) {
+		int k = n.words <= CONVERT_THRESHOLD ? -1 : split(n, ten);
+		if (k < 0) {
+			writeByWords(n, width, out, ten.base);
+			return;
+		}
+
+		int low = CHUNK_DIGITS << k;
+		/* n = q * 10^(9*2^k) + r, 0 <= r < 10^(9*2^k) */
+		Division.Result qr = Division.divide(n, ten.power(k));
+		BigNumber r = qr.remainder;
+		write(qr.quotient, width == 0 ? 0 : width - low, out, ten);
+		write(r, low, out, ten);
+	}
+
+	/*
+	 * Write the digits of positive BigNumber 'n' of a few words padded to
+	 * 'width' digits, by converting it to base 10^9 one word at a time
+	 */
+	private static void writeByWords(BigNumber n, int width, Sink out, long base) {
+		int size = Math.max((int) (n.words * (Math.log(base) / Math.log(CHUNK_RADIX))) + 2,
+				width / CHUNK_DIGITS);
+		long[] chunks = new long[size];
+		toBaseByWords(n, chunks, 0, CHUNK_RADIX);
+		int i = size - 1;
+		if (width == 0) {
+			/* The MSD of the number, without padding */
+			while (i > 0 && chunks[i] == 0)
+				i--;
+			out.write(chunks[i--]);
+		} else
+			i = width / CHUNK_DIGITS - 1;
+		for (; i >= 0; i--)
+			out.write(chunks[i], CHUNK_DIGITS);
+	}
+}
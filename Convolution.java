@@ -0,0 +1,240 @@
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Class to implement the product of very large BigNumbers by number theoretic
+ * transforms. The words of both numbers are convolved modulo three primes of
+ * the form c*2^k+1, and the exact convolution is recovered by the Chinese
+ * remainder theorem before the carries are propagated in the base.
+ *
+ * @author G94
+ */
+public class Convolution {
+	/* Primes p = c*2^k + 1 with primitive root 3, their product is about 2^86 */
+	private static final long[] PRIMES = { 998244353L, 167772161L, 469762049L };
+	private static final long GENERATOR = 3;
+
+	/*
+	 * Longest product in words. Every term of the convolution is a sum of
+	 * atmost MAX_LENGTH/2 products of words below 2^32, so it stays below 2^85
+	 * and the product of the primes. 998244353 = 119*2^23 + 1 would allow
+	 * transforms twice as long.
+	 */
+	public static final int MAX_LENGTH = 1 << 22;
+
+	private static final long MASK32 = 0xFFFFFFFFL;
+
+	/*
+	 * Class to implement arithmetic modulo a prime p < 2^30 in Montgomery form
+	 * with R = 2^32, so that every product is reduced with two multiplications
+	 * and a shift instead of a division
+	 */
+	private static class Field {
+		final long p;
+		final long pInv; /* -p^-1 mod 2^32 */
+		final long r2; /* R^2 mod p */
+
+		Field(long p) {
+			this.p = p;
+			long inv = p;
+			for (int i = 0; i < 5; i++)
+				/* Newton's iteration doubles the correct bits of p^-1 mod 2^64 */
+				inv *= 2 - p * inv;
+			this.pInv = -inv & MASK32;
+			long r = (1L << 32) % p;
+			this.r2 = r * r % p;
+		}
+
+		/* t * R^-1 mod p, for t < p * 2^32 */
+		long reduce(long t) {
+			long m = ((t & MASK32) * pInv) & MASK32;
+			long u = (t + m * p) >>> 32;
+			return u >= p ? u - p : u;
+		}
+
+		long multiply(long a, long b) {
+			return reduce(a * b);
+		}
+
+		/* Montgomery form of x < 2^32 */
+		long toField(long x) {
+			return reduce(x * r2);
+		}
+
+		/* a^e for 'a' in Montgomery form */
+		long power(long a, long e) {
+			long result = toField(1);
+			for (; e > 0; e >>= 1) {
+				if ((e & 1) != 0)
+					result = multiply(result, a);
+				a = multiply(a, a);
+			}
+			return result;
+		}
+
+		/*
+		 * In place transform of 'a' of length n = 2^k in Montgomery form, by
+		 * the iterative Cooley-Tukey butterflies. The inverse transform
+		 * includes the division by n.
+		 */
+		void transform(long[] a, int n, boolean inverse) {
+			/* Bit reversal permutation */
+			for (int i = 1, j = 0; i < n; i++) {
+				int bit = n >> 1;
+				for (; (j & bit) != 0; bit >>= 1)
+					j ^= bit;
+				j ^= bit;
+				if (i < j) {
+					long t = a[i];
+					a[i] = a[j];
+					a[j] = t;
+				}
+			}
+
+			long g = toField(GENERATOR);
+			if (inverse)
+				g = power(g, p - 2);
+			long[] w = new long[n / 2];
+			for (int length = 2; length <= n; length <<= 1) {
+				int half = length >> 1;
+				/* Powers of a primitive length'th root of unity */
+				long root = power(g, (p - 1) / length);
+				w[0] = toField(1);
+				for (int j = 1; j < half; j++)
+					w[j] = multiply(w[j - 1], root);
+				for (int i = 0; i < n; i += length) {
+					for (int j = 0; j < half; j++) {
+						long u = a[i + j];
+						long v = multiply(a[i + j + half], w[j]);
+						long s = u + v;
+						a[i + j] = s >= p ? s - p : s;
+						long d = u - v;
+						a[i + j + half] = d < 0 ? d + p : d;
+					}
+				}
+			}
+
+			if (inverse) {
+				long nInv = power(toField(n), p - 2);
+				for (int i = 0; i < n; i++)
+					a[i] = multiply(a[i], nInv);
+			}
+		}
+
+		/*
+		 * Cyclic convolution of the words of 'a' and 'b' modulo p, of length n,
+		 * back in normal form
+		 */
+		long[] convolve(BigNumber a, BigNumber b, int n) {
+			long[] fa = load(a, n);
+			transform(fa, n, false);
+			long[] fb = fa;
+			if (b != a) {
+				fb = load(b, n);
+				transform(fb, n, false);
+			}
+			for (int i = 0; i < n; i++)
+				fa[i] = multiply(fa[i], fb[i]);
+			transform(fa, n, true);
+			for (int i = 0; i < n; i++)
+				/* Out of Montgomery form */
+				fa[i] = reduce(fa[i]);
+			return fa;
+		}
+
+		/* Words of 'x' in Montgomery form, padded with zeros to length n */
+		private long[] load(BigNumber x, int n) {
+			long[] f = new long[n];
+			for (int i = 0; i < x.words; i++)
+				f[i] = toField(x.number[i]);
+			return f;
+		}
+	}
+
+	private static final Field[] FIELDS = { new Field(PRIMES[0]), new Field(PRIMES[1]), new Field(PRIMES[2]) };
+
+	/* Whether the product of 'a' and 'b' fits in a single transform */
+	public static boolean fits(BigNumber a, BigNumber b) {
+		return a.words + b.words <= MAX_LENGTH;
+	}
+
+	/*
+	 * Product of positive BigNumbers 'a' and 'b', with a.words + b.words atmost
+	 * MAX_LENGTH, in O(n log(n)) word operations. a == b computes the square
+	 * with one forward transform per prime.
+	 */
+	public static BigNumber product(BigNumber a, BigNumber b) {
+		long base = a.base;
+		int size = a.words + b.words;
+		/* Transform length, atleast the length of the convolution */
+		int n = 1;
+		while (n < size - 1)
+			n <<= 1;
+
+		/* The three convolutions are independent, fork them on Product's pool */
+		int length = n;
+		ForkJoinTask<long[]> c0 = Product.fork(() -> FIELDS[0].convolve(a, b, length), size);
+		ForkJoinTask<long[]> c1 = Product.fork(() -> FIELDS[1].convolve(a, b, length), size);
+		long[] r2 = FIELDS[2].convolve(a, b, n);
+		long[] r0 = c0.join(), r1 = c1.join();
+
+		long p0 = PRIMES[0], p1 = PRIMES[1], p2 = PRIMES[2];
+		long p0Inv = modInverse(p0 % p1, p1);
+		long p01 = p0 * p1;
+		long p01Inv = modInverse(p01 % p2, p2);
+
+		long[] z = new long[size];
+		/* 128 bit carry (carryHigh, carryLow) */
+		long carryHigh = 0, carryLow = 0;
+		for (int i = 0; i < size - 1; i++) {
+			/* Garner's CRT: x = r0 + p0*t1 + p0*p1*t2 < p0*p1*p2 */
+			long t1 = (r1[i] - r0[i] % p1 + p1) % p1 * p0Inv % p1;
+			long x01 = r0[i] + p0 * t1;
+			long t2 = (r2[i] - x01 % p2 + p2) % p2 * p01Inv % p2;
+			long low = p01 * t2;
+			long high = Math.multiplyHigh(p01, t2);
+
+			/* (high, low) += x01 + carry */
+			low += x01;
+			if (Long.compareUnsigned(low, x01) < 0)
+				high++;
+			low += carryLow;
+			if (Long.compareUnsigned(low, carryLow) < 0)
+				high++;
+			high += carryHigh;
+
+			if (a.bits != 0) {
+				/* Binary radix: the word is the low bits, the carry the rest */
+				int bits = a.bits;
+				z[i] = low & a.mask;
+				carryLow = (low >>> bits) | (high << (64 - bits));
+				carryHigh = high >>> bits;
+			} else {
+				/* Divide the 128 bits by the base, 32 bits at a time */
+				long qHigh = high / base;
+				long r = high % base;
+				long num = (r << 32) | (low >>> 32);
+				long q1 = Long.divideUnsigned(num, base);
+				r = Long.remainderUnsigned(num, base);
+				num = (r << 32) | (low & MASK32);
+				long q0 = Long.divideUnsigned(num, base);
+				z[i] = Long.remainderUnsigned(num, base);
+				carryHigh = qHigh;
+				carryLow = (q1 << 32) | q0;
+			}
+		}
+		/* The convolution has size-1 terms, the last word is the carry */
+		z[size - 1] = carryLow;
+		return new BigNumber(z, size, base, Sign.PLUS);
+	}
+
+	/* x^-1 mod p for a prime p */
+	private static long modInverse(long x, long p) {
+		long result = 1;
+		for (long e = p - 2; e > 0; e >>= 1) {
+			if ((e & 1) != 0)
+				result = result * x % p;
+			x = x * x % p;
+		}
+		return result;
+	}
+}
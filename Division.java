@@ -1,12 +1,16 @@
-import java.util.ArrayList;
-import java.util.ListIterator;
-
 /**
  * Class to implement division, modulo and square root of BigNumbers
  * 
  * @author G94
  */
 public class Division {
+	/*
+	 * Divisors of atleast BZ_THRESHOLD words, with atleast BZ_OFFSET more words
+	 * in the dividend, are divided by the Burnikel-Ziegler recursion
+	 */
+	public static int BZ_THRESHOLD = 80;
+	public static int BZ_OFFSET = 40;
+
 	/* Class to store the quotient and remainder of a division operation */
 	public static class Result {
 		public BigNumber quotient;
@@ -18,6 +22,17 @@ public class Division {
 		}
 	}
 
+	/* Class to store the root and remainder of a square root operation */
+	public static class RootResult {
+		public BigNumber root;
+		public BigNumber remainder;
+
+		public RootResult(BigNumber root, BigNumber remainder) {
+			this.root = root;
+			this.remainder = remainder;
+		}
+	}
+
 	/* Divide BigNumber 'a' by BigNumber 'b' */
 	public static Result divide(BigNumber a, BigNumber b) {
 		if (a == null || b == null) {
@@ -31,38 +46,46 @@ public class Division {
 			/* a / 0 = Infinity */
 			throw new ArithmeticException("Divide by zero");
 
-		Sign aSign = a.sign;
-		a.sign = Sign.PLUS;
-		Sign bSign = b.sign;
-		b.sign = Sign.PLUS;
-
-		Result c = divideByBS(a, b);
-		c.quotient.sign = Sign.product(aSign, bSign);
-		c.remainder.sign = bSign;
-
-		a.sign = aSign;
-		b.sign = bSign;
+		/* The kernels divide the magnitudes, the operands are only read */
+		BigNumber x = new BigNumber(a.number, a.words, a.base, Sign.PLUS);
+		BigNumber y = new BigNumber(b.number, b.words, b.base, Sign.PLUS);
+		Result c;
+		if (y.words >= BZ_THRESHOLD && x.words - y.words >= BZ_OFFSET)
+			c = divideByBZ(x, y);
+		else
+			c = divideByKnuth(x, y);
+		c.quotient.sign = Sign.product(a.sign, b.sign);
+		c.remainder.sign = b.sign;
 		return c;
 	}
 
 	/* Divide BigNumber 'a' by Long 'b' */
 	public static Result divide(BigNumber a, long b) {
 		if (b < a.base) {
-			ArrayList<Long> qList = new ArrayList<>();
+			long base = a.base;
+			long[] x = a.number;
+			long[] q = new long[a.words];
 			long r = 0;
-			ListIterator<Long> wIterator = a.wordIterator(a.words);
-			while (wIterator.hasPrevious()) {
-				/* Divide 'a' by 'b' from the MSD to LSD word by word */
-				long num = r * a.base + wIterator.previous();
-				r = num % b;
-				qList.add(num / b);
+			if (a.bits != 0) {
+				/* Binary radix: r*base + word may need all 64 bits */
+				int bits = a.bits;
+				for (int i = a.words - 1; i >= 0; i--) {
+					/* Divide 'a' by 'b' from the MSD to LSD word by word */
+					long num = (r << bits) | x[i];
+					r = Long.remainderUnsigned(num, b);
+					q[i] = Long.divideUnsigned(num, b);
+				}
+			} else {
+				for (int i = a.words - 1; i >= 0; i--) {
+					/* Divide 'a' by 'b' from the MSD to LSD word by word */
+					long num = r * base + x[i];
+					r = num % b;
+					q[i] = num / b;
+				}
 			}
 
-			BigNumber quotient = new BigNumber(null, a.base, Sign.product(a.sign, Sign.from(b)));
-			for (int i = qList.size() - 1; i >= 0; i--)
-				/* Add words into the list from the LSD to MSD */
-				quotient.addWord(qList.get(i));
-			BigNumber remainder = new BigNumber(r, a.base, Sign.from(b));
+			BigNumber quotient = new BigNumber(q, q.length, base, Sign.product(a.sign, Sign.from(b)));
+			BigNumber remainder = new BigNumber(r, base, Sign.from(b));
 			return new Result(quotient, remainder);
 		}
 		return divide(a, new BigNumber(b, a.base, Sign.from(b)));
@@ -70,128 +93,304 @@ public class Division {
 
 	/*
 	 * Internal method to divide BigNumber 'a' by BigNumber 'b' irrespective of
-	 * their signs
+	 * their signs, using Knuth's Algorithm D (TAOCP Vol 2, 4.3.1). The divisor
+	 * is normalized so that its MSD is atleast base/2; then every quotient
+	 * word estimated from the top two words of the running remainder is off
+	 * by atmost 2. Costs O(n*m) word operations for an n word quotient and an
+	 * m word divisor.
 	 */
-	private static Result divideByBS(BigNumber a, BigNumber b) {
-		int cValue = a.compare(b);
-		BigNumber zero = new BigNumber(0, a.base);
-		BigNumber one = new BigNumber(1, a.base);
-		if (cValue == -1)
-			/* a < b */
-			return new Result(zero, a.clone());
-		else if (cValue == 0)
-			/* a = b */
-			return new Result(one, zero);
-
-		BigNumber bSquare = Product.power(b, 2);
-		cValue = bSquare.compare(a);
-		BigNumber start, end;
-		if (cValue == 0) {
-			/* b * b = a */
-			return new Result(b.clone(), zero);
-		} else if (cValue == 1) {
-			/* b * b > a */
-			start = one;
-			end = b;
-		} else {
-			/* b * b < a */
-			start = b;
-			end = a;
+	private static Result divideByKnuth(BigNumber a, BigNumber b) {
+		long base = a.base;
+		if (a.words < b.words)
+			/* a < b, the remainder is a copy that does not share the words of 'a' */
+			return new Result(new BigNumber(0, base), BigNumber.words(a, 0, a.words));
+		if (b.words == 1) {
+			/* Single word divisor */
+			return divide(new BigNumber(a.number, a.words, base, Sign.PLUS), b.getLSW());
 		}
 
-		while (start.compare(end) <= 0) {
-			BigNumber mid = divide(Sum.add(start, end), 2).quotient;
-			BigNumber midTimesB = Product.product(mid, b);
-			cValue = midTimesB.compare(a);
-			if (cValue == 0) {
-				/* mid * b = a */
-				return new Result(mid, zero);
-
-			} else if (cValue == -1) {
-				/* mid * b < a */
-				BigNumber midPlusOne = Sum.add(mid, one);
-				BigNumber midPlusOneTimesB = Sum.add(midTimesB, b);
-				cValue = midPlusOneTimesB.compare(a);
-				if (cValue == 0)
-					/* mid+1 * b = a */
-					return new Result(midPlusOne, zero);
-				else if (cValue == 1)
-					/* mid+1 * b > a */
-					return new Result(mid, Sum.subtract(a, midTimesB));
-				else
-					/* mid+1 * b < a */
-					start = midPlusOne;
+		int bits = a.bits;
+		long mask = a.mask;
+		int n = b.words;
+		int m = a.words - n;
 
-			} else {
-				/* mid * b > a */
-				BigNumber midMinusOne = Sum.subtract(mid, one);
-				BigNumber midMinusOneTimesB = Sum.subtract(midTimesB, b);
-				cValue = midMinusOneTimesB.compare(a);
-				if (cValue == 0)
-					/* mid-1 * b = a */
-					return new Result(midMinusOne, zero);
-				else if (cValue == -1)
-					/* mid-1 * b < a */
-					return new Result(midMinusOne, Sum.subtract(a, midMinusOneTimesB));
-				else
-					/* mid-1 * b > a */
-					end = midMinusOne;
+		/*
+		 * The quotient and remainder are allocated first, so that nothing
+		 * between reserve and release can fail
+		 */
+		long[] q = new long[m + 1];
+		long[] r = new long[n];
+
+		/* D1: normalize, into scratch as u and v live only during the loop */
+		long d = normalizer(b);
+		Scratch scratch = Scratch.get();
+		int mark = scratch.reserve(a.words + 1 + n);
+		Slice us = scratch.take(a.words + 1, new Slice(a));
+		Slice vs = scratch.take(n, us);
+		long[] u = us.words, v = vs.words;
+		int uo = us.offset, vo = vs.offset;
+		multiplyByWord(a.number, a.words, d, u, uo, a.words + 1, base, bits, mask);
+		multiplyByWord(b.number, n, d, v, vo, n, base, bits, mask);
+		long v1 = v[vo + n - 1], v2 = v[vo + n - 2];
+
+		for (int j = m; j >= 0; j--) {
+			int uj = uo + j;
+			/* D3: estimate qhat = (u[j+n]*base + u[j+n-1]) / v[n-1] */
+			long num = bits != 0 ? (u[uj + n] << bits) | u[uj + n - 1] : u[uj + n] * base + u[uj + n - 1];
+			long qhat = Long.divideUnsigned(num, v1);
+			long rhat = num - qhat * v1;
+			/* Correct qhat atmost twice using the next word of the divisor */
+			while (qhat >= base || Long.compareUnsigned(qhat * v2,
+					(bits != 0 ? rhat << bits : rhat * base) + u[uj + n - 2]) > 0) {
+				qhat--;
+				rhat += v1;
+				if (rhat >= base)
+					break;
+			}
+
+			/* D4: u[j..j+n] -= qhat * v */
+			long carry = 0, borrow = 0;
+			for (int i = 0; i < n; i++) {
+				long p = qhat * v[vo + i] + carry;
+				carry = bits != 0 ? p >>> bits : p / base;
+				long t = u[uj + i] - (bits != 0 ? p & mask : p % base) - borrow;
+				borrow = t < 0 ? 1 : 0;
+				u[uj + i] = t + borrow * base;
+			}
+			long t = u[uj + n] - carry - borrow;
+			u[uj + n] = t;
+
+			if (t < 0) {
+				/* D6: qhat was one too large, add v back */
+				qhat--;
+				carry = 0;
+				for (int i = 0; i < n; i++) {
+					long s = u[uj + i] + v[vo + i] + carry;
+					carry = s >= base ? 1 : 0;
+					u[uj + i] = s - carry * base;
+				}
+				u[uj + n] = 0;
+			}
+			q[j] = qhat;
+		}
+
+		/* D8: unnormalize, the remainder is u[0..n) / d < base^n */
+		long rem = 0;
+		for (int i = n - 1; i >= 0; i--) {
+			long w = rem * base + u[uo + i];
+			r[i] = w / d;
+			rem = w % d;
+		}
+		scratch.release(mark);
+		return new Result(new BigNumber(q, m + 1, base, Sign.PLUS), new BigNumber(r, n, base, Sign.PLUS));
+	}
+
+	/*
+	 * Word 'd' such that the MSD of d*b is atleast base/2, without changing
+	 * the number of words of b. d = 2^s for binary radix, otherwise
+	 * base/(MSD+1).
+	 */
+	private static long normalizer(BigNumber b) {
+		if (b.bits != 0)
+			return 1L << (Long.numberOfLeadingZeros(b.getMSW()) - (64 - b.bits));
+		return b.base / (b.getMSW() + 1);
+	}
+
+	/*
+	 * Multiply the words x[0..length) by the word 'd' into z[zo..zo+size),
+	 * size > length holds the carry out
+	 */
+	private static void multiplyByWord(long[] x, int length, long d, long[] z, int zo, int size, long base, int bits,
+			long mask) {
+		long carry = 0;
+		for (int i = 0; i < length; i++) {
+			long p = x[i] * d + carry;
+			carry = bits != 0 ? p >>> bits : p / base;
+			z[zo + i] = bits != 0 ? p & mask : p % base;
+		}
+		if (size > length)
+			z[zo + length] = carry;
+	}
+
+	/*
+	 * Internal method to divide BigNumber 'a' by BigNumber 'b' irrespective of
+	 * their signs, using the recursive algorithm of Burnikel and Ziegler
+	 * ("Fast Recursive Division", MPI-I-98-1-022). The divisor is scaled to
+	 * exactly n = j*2^k words with its MSD atleast base/2, the dividend is cut
+	 * into blocks of n words, and every 2n by n word step splits into two 3/2
+	 * steps of half the size. Division then costs about 2 products of its
+	 * operand size, as the products are Karatsuba's.
+	 */
+	private static Result divideByBZ(BigNumber a, BigNumber b) {
+		long base = a.base;
+		int s = b.words;
+		/* m = 2^k blocks of j words, n = j*m >= s, with j < BZ_THRESHOLD */
+		int m = 1 << (32 - Integer.numberOfLeadingZeros(s / BZ_THRESHOLD));
+		int j = (s + m - 1) / m;
+		int n = j * m;
 
+		/* Scale 'a' and 'b' by D = d * base^(n-s), the quotient is the same */
+		long d = normalizer(b);
+		BigNumber bScaled = Product.product(BigNumber.shiftWords(b, n - s), d);
+		BigNumber aScaled = Product.product(BigNumber.shiftWords(a, n - s), d);
+		bScaled.sign = aScaled.sign = Sign.PLUS;
+
+		/* Blocks of n words, the top block is below b as it has < n words */
+		int t = Math.max(2, aScaled.words / n + 1);
+		long[] q = new long[(t - 1) * n];
+		BigNumber z = BigNumber.words(aScaled, (t - 2) * n, t * n);
+		for (int i = t - 2;; i--) {
+			/* z = r * base^n + a[i], z < base^n * b */
+			Result qr = divide2n1n(z, bScaled, n);
+			System.arraycopy(qr.quotient.number, 0, q, i * n, qr.quotient.words);
+			if (i == 0) {
+				/* Unscale the remainder, r = r' / D */
+				BigNumber r = BigNumber.words(qr.remainder, n - s, qr.remainder.words);
+				if (d != 1)
+					r = divide(r, d).quotient;
+				return new Result(new BigNumber(q, q.length, base, Sign.PLUS), r);
 			}
+			z = BigNumber.join(qr.remainder, aScaled, (i - 1) * n, n);
+		}
+	}
+
+	/*
+	 * Divide 'a' < base^n * b by 'b' of n words with its MSD atleast base/2,
+	 * giving a quotient of atmost n words
+	 */
+	private static Result divide2n1n(BigNumber a, BigNumber b, int n) {
+		if ((n & 1) != 0 || n < BZ_THRESHOLD)
+			return divideByKnuth(a, b);
+
+		int half = n / 2;
+		/* a = [a1, a2, a3, a4] in blocks of n/2 words */
+		Result qr1 = divide3n2n(BigNumber.words(a, half, a.words), b, half);
+		/* [r1, a4], r1 < b */
+		Result qr2 = divide3n2n(BigNumber.join(qr1.remainder, a, 0, half), b, half);
+		/* q = q1 * base^(n/2) + q2, q2 < base^(n/2) */
+		return new Result(BigNumber.join(qr1.quotient, qr2.quotient, 0, half), qr2.remainder);
+	}
+
+	/*
+	 * Divide 'a' of atmost 3 blocks of 'half' words by 'b' = [b1, b2] of 2
+	 * blocks, where a < base^half * b
+	 */
+	private static Result divide3n2n(BigNumber a, BigNumber b, int half) {
+		BigNumber a12 = BigNumber.words(a, half, a.words);
+		BigNumber b1 = BigNumber.words(b, half, b.words);
+		BigNumber b2 = BigNumber.words(b, 0, half);
+
+		BigNumber q, r1;
+		if (BigNumber.words(a, 2 * half, a.words).compare(b1) < 0) {
+			/* a1 < b1: q = [a1, a2] / b1 */
+			Result qr = divide2n1n(a12, b1, half);
+			q = qr.quotient;
+			r1 = qr.remainder;
+		} else {
+			/* q = base^half - 1, r1 = [a1, a2] - q*b1 = [a1, a2] - b1*base^half + b1 */
+			q = Sum.subtract(BigNumber.shiftWords(new BigNumber(1, a.base), half), new BigNumber(1, a.base));
+			r1 = Sum.add(Sum.subtract(a12, BigNumber.shiftWords(b1, half)), b1);
+		}
+
+		/* r = r1 * base^half + a3 - q * b2, corrected while negative */
+		BigNumber r = Sum.subtract(BigNumber.join(r1, a, 0, half), Product.product(q, b2));
+		BigNumber one = new BigNumber(1, a.base);
+		while (r.sign == Sign.MINUS && r.words != 0) {
+			r = Sum.add(r, b);
+			q = Sum.subtract(q, one);
 		}
-		/* The execution shouldn't reach here */
-		return null;
+		r.sign = Sign.PLUS;
+		return new Result(q, r);
+	}
+
+	/*
+	 * BigNumber 'a' raised to the power 'e', modulo BigNumber 'm'. The same
+	 * as the remainder of a^e by m, with the sign of m, but every product is
+	 * reduced by m so that the numbers stay as small as m.
+	 */
+	public static BigNumber modPower(BigNumber a, BigNumber e, BigNumber m) {
+		if (a == null || e == null || m == null)
+			return null;
+		if (m.words == 0)
+			throw new ArithmeticException("Divide by zero");
+		if (e.sign == Sign.MINUS && e.words != 0)
+			throw new ArithmeticException("Power with -ve exponent");
+
+		BigNumber x = new BigNumber(a.number, a.words, a.base, Sign.PLUS);
+		BigNumber modulus = new BigNumber(m.number, m.words, m.base, Sign.PLUS);
+		BigNumber c = Modulus.of(modulus).power(x, e);
+		c.sign = m.sign;
+		return c;
 	}
 
 	/* Square Root of BigNumber 'a' truncated to the floor value */
 	public static BigNumber squareRoot(BigNumber a) {
+		return squareRootRemainder(a).root;
+	}
+
+	/*
+	 * Square Root of BigNumber 'a' truncated to the floor value 's', along
+	 * with the remainder r = a - s^2
+	 */
+	public static RootResult squareRootRemainder(BigNumber a) {
 		if (a.sign == Sign.MINUS) {
 			/* square root of a -ve number is complex */
 			throw new ArithmeticException("Square root of a -ve number");
 		}
+		return sqrtRem(new BigNumber(a.number, a.words, a.base, Sign.PLUS));
+	}
+
+	/*
+	 * Internal method to find the square root and remainder of positive
+	 * BigNumber 'a' by Zimmermann's Karatsuba Square Root (INRIA RR-3805).
+	 * With B = base^k, a = a' * B^2 + a1 * B + a0 where a' >= B^2. From the
+	 * root s' and remainder r' of the top half a',
+	 * 
+	 * q, u = (r' * B + a1) / (2 * s'), s = s' * B + q, r = u * B + a0 - q^2
+	 * 
+	 * and s is atmost one more than the root, which shows as r < 0. This costs
+	 * a division of half the size plus a product of a quarter the size on
+	 * every level, a few products of the full size in all.
+	 */
+	private static RootResult sqrtRem(BigNumber a) {
+		if (a.words <= 4)
+			return sqrtRemByNewton(a);
+
+		int k = (a.words - 1) / 4;
+		RootResult top = sqrtRem(BigNumber.words(a, 2 * k, a.words));
+		BigNumber a1 = BigNumber.words(a, k, 2 * k);
+		Result qu = divide(Sum.add(BigNumber.shiftWords(top.remainder, k), a1), Product.product(top.root, 2));
+		BigNumber s = Sum.add(BigNumber.shiftWords(top.root, k), qu.quotient);
+		BigNumber r = Sum.subtract(Sum.add(BigNumber.shiftWords(qu.remainder, k), BigNumber.words(a, 0, k)),
+				Product.square(qu.quotient));
 
-		int cValue;
 		BigNumber one = new BigNumber(1, a.base);
-		BigNumber start = one;
-		BigNumber end = divide(a, 2).quotient;
-		while (start.compare(end) <= 0) {
-			BigNumber mid = divide(Sum.add(start, end), 2).quotient;
-			BigNumber midSquare = Product.product(mid, mid);
-			cValue = midSquare.compare(a);
-			if (cValue == 0) {
-				/* mid^2 = a */
-				return mid;
-
-			} else if (cValue == -1) {
-				/* mid^2 < a */
-				BigNumber midPlusOne = Sum.add(mid, one);
-				BigNumber midPlusOneSquare = Product.product(midPlusOne, midPlusOne);
-				cValue = midPlusOneSquare.compare(a);
-				if (cValue == 0)
-					/* (mid+1)^2 = a */
-					return midPlusOne;
-				else if (cValue == 1)
-					/* (mid+1)^2 > a */
-					return mid;
-				else
-					/* (mid+1)^2 < a */
-					start = midPlusOne;
+		while (r.sign == Sign.MINUS && r.words != 0) {
+			/* (s-1)^2 = s^2 - 2s + 1 => r = r + 2s - 1 */
+			r = Sum.add(r, Sum.subtract(Product.product(s, 2), one));
+			s = Sum.subtract(s, one);
+		}
+		r.sign = Sign.PLUS;
+		return new RootResult(s, r);
+	}
 
-			} else {
-				/* mid^2 > a */
-				BigNumber midMinusOne = Sum.subtract(mid, one);
-				BigNumber midMiusOneSquare = Product.product(midMinusOne, midMinusOne);
-				cValue = midMiusOneSquare.compare(a);
-				if (cValue <= 0)
-					/* (mid-1)^2 <= a */
-					return midMinusOne;
-				else
-					/* (mid-1)^2 > a */
-					end = midMinusOne;
+	/*
+	 * Internal method to find the square root and remainder of positive
+	 * BigNumber 'a' of a few words by Newton's iteration x = (x + a/x) / 2,
+	 * which decreases from any start above the root until it reaches it
+	 */
+	private static RootResult sqrtRemByNewton(BigNumber a) {
+		if (a.words == 0)
+			return new RootResult(new BigNumber(0, a.base), new BigNumber(0, a.base));
 
-			}
+		/* base^ceil(n/2) > root of a */
+		BigNumber x = BigNumber.shiftWords(new BigNumber(1, a.base), (a.words + 1) / 2);
+		while (true) {
+			BigNumber y = divide(Sum.add(x, divide(a, x).quotient), 2).quotient;
+			if (y.compare(x) >= 0)
+				break;
+			x = y;
 		}
-		/* The execution shouldn't reach here */
-		return null;
+		return new RootResult(x, Sum.subtract(a, Product.square(x)));
 	}
 }
\ No newline at end of file
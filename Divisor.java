@@ -0,0 +1,147 @@
+/**
+ * Class to implement repeated division by the same BigNumber. A reciprocal of
+ * the divisor is computed once, so that every later division costs a few
+ * multiplications instead of a long division: the Granlund-Moller constant
+ * for a divisor of a single word in a binary radix, and the Barrett
+ * reciprocal for a divisor of many words.
+ *
+ * A Divisor is not thread safe: the reciprocal is set up lazily by divide, so
+ * an instance must not be shared by threads dividing at the same time. The
+ * Executor keeps one per register and is safe only because
+ * Program.findDependencies orders the divisions by the same register through
+ * lastDivider, also within a parallel block.
+ *
+ * @author G94
+ */
+public class Divisor {
+	/* Divisor words from which the Barrett reciprocal beats Algorithm D */
+	public static int BARRETT_THRESHOLD = 64;
+
+	public final BigNumber d;
+	/* Magnitude of d */
+	private final BigNumber divisor;
+	private final int n;
+	private int uses = 0;
+
+	/* Single word: d << shift has its top bit set, v = floor((B^2-1)/(d << shift)) - B */
+	private long normalized, v;
+	private int shift;
+
+	/* Many words: mu = floor(base^2n / d) */
+	private BigNumber mu;
+
+	public Divisor(BigNumber d) {
+		if (d.words == 0)
+			/* a / 0 = Infinity */
+			throw new ArithmeticException("Divide by zero");
+		this.d = d;
+		this.divisor = new BigNumber(d.number, d.words, d.base, Sign.PLUS);
+		this.n = d.words;
+	}
+
+	/*
+	 * Divide BigNumber 'a' by the divisor, with the signs of Division.divide.
+	 * The reciprocal is computed on the second division, so that a divisor
+	 * used once costs no more than a plain division.
+	 */
+	public Division.Result divide(BigNumber a) {
+		if (a.base != d.base || uses++ == 0 || (n > 1 && n < BARRETT_THRESHOLD) || (n == 1 && d.bits == 0))
+			return Division.divide(a, d);
+
+		if (a.words == 0)
+			/* 0 / d = 0 */
+			return new Division.Result(new BigNumber(0, a.base), a.clone());
+
+		Division.Result c = n == 1 ? divideByWord(a) : divideByBarrett(a);
+		c.quotient.sign = Sign.product(a.sign, d.sign);
+		c.remainder.sign = d.sign;
+		return c;
+	}
+
+	/*
+	 * Divide the magnitude of 'a' by a single word divisor in a binary radix
+	 * B = 2^bits, by Granlund and Moller's division by invariant integers
+	 * using multiplication. The dividend is shifted along with the divisor,
+	 * and every quotient word costs two products and two corrections.
+	 */
+	private Division.Result divideByWord(BigNumber a) {
+		int bits = d.bits;
+		long mask = d.mask;
+		if (normalized == 0) {
+			long word = divisor.number[0];
+			shift = Long.numberOfLeadingZeros(word) - (64 - bits);
+			normalized = word << shift;
+			/* B^2 - 1 fits an unsigned long for B <= 2^32 */
+			long b2 = bits == 32 ? -1L : (1L << 2 * bits) - 1;
+			v = Long.divideUnsigned(b2, normalized) - (1L << bits);
+		}
+
+		long mask2 = bits == 32 ? -1L : (1L << 2 * bits) - 1;
+		long[] x = a.number;
+		long[] q = new long[a.words];
+		/* Top word of the shifted dividend, below 2^shift <= normalized */
+		long r = shift == 0 ? 0 : x[a.words - 1] >>> (bits - shift);
+		for (int i = a.words - 1; i >= 0; i--) {
+			long u0 = x[i] << shift & mask;
+			if (shift != 0 && i > 0)
+				u0 |= x[i - 1] >>> (bits - shift);
+
+			/* (q1, q0) = v*r + (r, u0) mod B^2 */
+			long p = v * r + (r << bits | u0) & mask2;
+			long q1 = (p >>> bits) + 1 & mask;
+			long q0 = p & mask;
+			long rem = u0 - q1 * normalized & mask;
+			if (rem > q0) {
+				q1 = q1 - 1 & mask;
+				rem = rem + normalized & mask;
+			}
+			if (rem >= normalized) {
+				q1++;
+				rem -= normalized;
+			}
+			q[i] = q1;
+			r = rem;
+		}
+		BigNumber quotient = new BigNumber(q, q.length, a.base, Sign.PLUS);
+		return new Division.Result(quotient, new BigNumber(r >>> shift, a.base));
+	}
+
+	/*
+	 * Divide the magnitude of 'a' by the n word divisor n words at a time from
+	 * the MSD. Every step divides t = r*base^n + (next n words) < d*base^n by
+	 * Barrett's estimate floor(floor(t / base^(n-1)) * mu / base^(n+1)), which
+	 * is short of the quotient by atmost 2.
+	 */
+	private Division.Result divideByBarrett(BigNumber a) {
+		int blocks = (a.words + n - 1) / n;
+		long[] q = new long[blocks * n];
+		BigNumber r = new BigNumber(0, a.base);
+		for (int b = blocks - 1; b >= 0; b--) {
+			long[] t = new long[2 * n];
+			System.arraycopy(a.number, b * n, t, 0, Math.min(n, a.words - b * n));
+			System.arraycopy(r.number, 0, t, n, r.words);
+			Division.Result qr = reduce(new BigNumber(t, t.length, a.base, Sign.PLUS));
+			System.arraycopy(qr.quotient.number, 0, q, b * n, qr.quotient.words);
+			r = qr.remainder;
+		}
+		return new Division.Result(new BigNumber(q, q.length, a.base, Sign.PLUS), r);
+	}
+
+	/* Quotient and remainder of the positive t < d*base^n by Barrett's method */
+	Division.Result reduce(BigNumber t) {
+		if (mu == null)
+			/* mu = floor(base^2n / d) */
+			mu = Division.divide(BigNumber.shiftWords(new BigNumber(1, d.base), 2 * n), divisor).quotient;
+
+		BigNumber q = BigNumber.words(Product.product(BigNumber.words(t, n - 1, t.words), mu), n + 1, Integer.MAX_VALUE);
+		BigNumber r = Sum.subtract(t, Product.product(q, divisor));
+		if (r.compare(divisor) >= 0) {
+			BigNumber one = new BigNumber(1, d.base);
+			do {
+				r = Sum.subtract(r, divisor);
+				q = Sum.add(q, one);
+			} while (r.compare(divisor) >= 0);
+		}
+		return new Division.Result(q, r);
+	}
+}
@@ -1,5 +1,8 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class to implement execute the list of expressions in a Script
@@ -9,97 +12,283 @@ import java.util.Map;
 public class Executor {
     public static final int MAX_VARIABLE_COUNT = 52;
 
+    /* Compile the given script and execute it */
+    public static void execute(Script s) {
+	execute(Program.compile(s));
+    }
+
     /*
-     * Execute the given script line by line. Uses a HashMap to store the
-     * variable values for easy retrieval.
+     * Execute the given program instruction by instruction. The variable
+     * values are kept in an array of registers indexed by variable, and the
+     * Divisor of every variable used on the right of '/' or '%' in another,
+     * so that a loop dividing by the same value computes its reciprocal only
+     * once. When large products run on a pool, the independent lines of a
+     * block run on it as well. The output goes to System.out through a Sink,
+     * flushed when the program ends or fails.
      */
-    public static void execute(Script s) {
-	Map<Character, BigNumber> varMap = new HashMap<>(MAX_VARIABLE_COUNT);
+    public static void execute(Program p) {
+	execute(p, new Sink(System.out));
+    }
 
-	for (int line_no = 1; line_no <= s.size;)
-	    line_no = execute(s.lines[line_no], line_no, varMap);
+    /* Execute the given program, printing into the given sink */
+    public static void execute(Program p, Sink out) {
+	try {
+	    run(p, out);
+	} finally {
+	    out.flush();
+	}
+    }
+
+    private static void run(Program p, Sink out) {
+	BigNumber[] registers = new BigNumber[MAX_VARIABLE_COUNT];
+	Divisor[] divisors = new Divisor[MAX_VARIABLE_COUNT];
+	ForkJoinPool pool = Product.getPool();
+
+	for (int line_no = 1; line_no <= p.size;) {
+	    if (pool != null && p.blockEnd[line_no] != 0 && isHeavy(p, line_no, registers))
+		line_no = executeBlock(p, line_no, registers, divisors, pool, out);
+	    else
+		line_no = execute(p, line_no, registers, divisors, out);
+	}
     }
 
     /*
-     * Execute a given expression and store the assignments in the varMap. Also
-     * the next line to execute.
+     * Whether the block starting at line 'first' has atleast two lines worth
+     * running on the pool: factorials, powers and product trees, or products,
+     * divisions and prints of numbers of atleast Product.PARALLEL_THRESHOLD
+     * words when the block starts. Blocks of small numbers, such as the body
+     * of a counting loop, run faster in the calling thread.
      */
-    private static int execute(String expression, int line_no, Map<Character, BigNumber> varMap) {
-	char[] tokens = expression.toCharArray();
-	int length = tokens.length;
-	char varName = tokens[0];
-	BigNumber var1 = varMap.get(varName);
-	if (!expression.contains("=")) {
-	    /* Not an assignment */
-	    switch (length) {
-	    case 1: /* var */
-		System.out.println(var1);
-		break;
-
-	    case 2: /* var) */
-		var1.printList();
+    private static boolean isHeavy(Program p, int first, BigNumber[] registers) {
+	int heavy = 0;
+	for (int line_no = first; line_no <= p.blockEnd[first]; line_no++) {
+	    int at = line_no * Program.WIDTH;
+	    switch (p.code[at]) {
+	    case Program.FACTORIAL:
+	    case Program.POWER:
+	    case Program.MOD_POWER:
+	    case Program.PRODUCT_OF:
+		heavy++;
 		break;
-
-	    default: /* var?notzero:zero */
-		String[] line_nos = new String(tokens, 2, length - 2).split(":");
-		if (var1.words != 0) /* nonzero */
-		    return Integer.parseInt(line_nos[0]);
-		if (line_nos.length == 2) /* zero */
-		    return Integer.parseInt(line_nos[1]);
+	    case Program.PRINT:
+	    case Program.MULTIPLY:
+	    case Program.DIVIDE:
+	    case Program.MODULO:
+	    case Program.SQUARE_ROOT:
+		for (int r : p.reads(at)) {
+		    if (registers[r] != null && registers[r].words >= Product.PARALLEL_THRESHOLD) {
+			heavy++;
+			break;
+		    }
+		}
 		break;
-
 	    }
-	} else {
-	    /* Assignment */
-	    BigNumber result = null;
-	    if (expression.matches("[a-zA-Z]=[0-9]+")) {
-		/* var=NumberInDecimal */
-		result = new BigNumber(new String(tokens, 2, length - 2));
-
-	    } else {
-		/* Arithmetic operation */
-		BigNumber var2 = varMap.get(tokens[2]);
-		BigNumber var3 = null;
-		if (length == 5) /* Binary operator */
-		    var3 = varMap.get(tokens[4]);
-		char operand = tokens[3];
-		switch (operand) {
-		case '+': /* var=var+var */
-		    result = BigNumber.add(var2, var3);
-		    break;
-
-		case '-': /* var=var-var */
-		    result = BigNumber.subtract(var2, var3);
-		    break;
-
-		case '*': /* var=var*var */
-		    result = BigNumber.product(var2, var3);
-		    break;
-
-		case '^': /* var=var^var */
-		    result = BigNumber.power(var2, var3);
-		    break;
-
-		case '/': /* var=var/var */
-		    result = BigNumber.divide(var2, var3);
-		    break;
-
-		case '%': /* var=var%var */
-		    result = BigNumber.modulo(var2, var3);
-		    break;
-
-		case '!': /* var=var! */
-		    result = BigNumber.factorial(var2);
-		    break;
-
-		case '~': /* var=var~ */
-		    result = BigNumber.squareRoot(var2);
-		    break;
+	    if (heavy >= 2)
+		return true;
+	}
+	return false;
+    }
 
-		}
+    /*
+     * Execute the straight-line block starting at line 'first' on the pool,
+     * every line as soon as the lines it depends on are done, and return the
+     * next line to execute. The lines are waited for in order, so that the
+     * first failure in the order of the script is the one thrown.
+     */
+    private static int executeBlock(Program p, int first, BigNumber[] registers, Divisor[] divisors,
+	    ForkJoinPool pool, Sink out) {
+	int last = p.blockEnd[first];
+	if (p.code[last * Program.WIDTH] == Program.JUMP)
+	    /* The jump runs last, in this thread */
+	    last--;
+	CompletableFuture<?>[] done = new CompletableFuture<?>[last - first + 1];
+	for (int line_no = first; line_no <= last; line_no++) {
+	    int[] after = p.after[line_no];
+	    CompletableFuture<?>[] before = new CompletableFuture<?>[after.length];
+	    for (int i = 0; i < after.length; i++)
+		before[i] = done[after[i] - first];
+	    int l = line_no;
+	    done[l - first] = CompletableFuture.allOf(before).thenRunAsync(() -> execute(p, l, registers, divisors, out),
+		    pool);
+	}
+	for (CompletableFuture<?> line : done) {
+	    try {
+		line.join();
+	    } catch (CompletionException e) {
+		/* Throw the exception of the line itself */
+		if (e.getCause() instanceof RuntimeException)
+		    throw (RuntimeException) e.getCause();
+		if (e.getCause() instanceof Error)
+		    throw (Error) e.getCause();
+		throw e;
 	    }
-	    varMap.put(varName, result);
 	}
+	if (last < p.blockEnd[first])
+	    return execute(p, last + 1, registers, divisors, out);
+	return last + 1;
+    }
+
+    /*
+     * Execute the instruction of the given line and store the assignment in
+     * its target register. Also the next line to execute.
+     */
+    private static int execute(Program p, int line_no, BigNumber[] registers, Divisor[] divisors, Sink out) {
+	int[] code = p.code;
+	int at = line_no * Program.WIDTH;
+	int op = code[at], target = code[at + 1], x = code[at + 2], y = code[at + 3];
+	BigNumber result = null;
+	switch (op) {
+	case Program.PRINT: /* var */
+	    if (registers[target] == null)
+		out.write("null");
+	    else
+		registers[target].writeTo(out);
+	    out.newLine();
+	    return line_no + 1;
+
+	case Program.PRINT_LIST: /* var) */
+	    registers[target].printList(out);
+	    return line_no + 1;
+
+	case Program.JUMP: /* var?notzero:zero */
+	    return registers[target].words != 0 ? x : y;
+
+	case Program.CONSTANT: /* var=NumberInDecimal, converted when compiled */
+	    result = p.constants[x];
+	    break;
+
+	case Program.ADD: /* var=var+var */
+	    if (canUpdateInPlace(op, target, x, y, registers))
+		result = updateInPlace(op, target, x, y, registers, divisors);
+	    else
+		result = BigNumber.add(registers[x], get(registers, y));
+	    break;
+
+	case Program.SUBTRACT: /* var=var-var */
+	    if (canUpdateInPlace(op, target, x, y, registers))
+		result = updateInPlace(op, target, x, y, registers, divisors);
+	    else
+		result = BigNumber.subtract(registers[x], get(registers, y));
+	    break;
+
+	case Program.MULTIPLY: /* var=var*var */
+	    if (canUpdateInPlace(op, target, x, y, registers))
+		result = updateInPlace(op, target, x, y, registers, divisors);
+	    else
+		result = BigNumber.product(registers[x], get(registers, y));
+	    break;
+
+	case Program.PRODUCT_OF: /* var=var*var*...*var, multiplied as a product tree */
+	    List<BigNumber> factors = new ArrayList<>();
+	    for (int r : p.operands[x])
+		factors.add(registers[r]);
+	    result = BigNumber.productOf(factors);
+	    break;
+
+	case Program.POWER: /* var=var^var */
+	    result = BigNumber.power(registers[x], get(registers, y));
+	    break;
+
+	case Program.MOD_POWER: /* var=var^var%var, reduced at every step */
+	    result = BigNumber.modPower(registers[x], registers[y], registers[code[at + 4]]);
+	    break;
+
+	case Program.DIVIDE: /* var=var/var */
+	    if (canUpdateInPlace(op, target, x, y, registers))
+		result = updateInPlace(op, target, x, y, registers, divisors);
+	    else
+		result = divisor(y, registers[y], divisors).divide(registers[x]).quotient;
+	    break;
+
+	case Program.MODULO: /* var=var%var */
+	    result = divisor(y, registers[y], divisors).divide(registers[x]).remainder;
+	    break;
+
+	case Program.FACTORIAL: /* var=var! */
+	    result = BigNumber.factorial(registers[x]);
+	    break;
+
+	case Program.SQUARE_ROOT: /* var=var~ */
+	    result = BigNumber.squareRoot(registers[x]);
+	    break;
+
+	}
+	registers[target] = result;
 	return line_no + 1;
     }
-}
\ No newline at end of file
+
+    /* Value of the given register, null for an operand that is not given */
+    private static BigNumber get(BigNumber[] registers, int r) {
+	return r == Program.NO_REGISTER ? null : registers[r];
+    }
+
+    /*
+     * Whether the binary operation 'op' can update its target in place: a
+     * sum or difference into its first operand, or a product or quotient of
+     * it by a single word. Sums and products also commute.
+     */
+    private static boolean canUpdateInPlace(int op, int target, int x, int y, BigNumber[] registers) {
+	if (y == Program.NO_REGISTER)
+	    return false;
+	boolean first = x == target, second = y == target;
+	BigNumber var = registers[target];
+	BigNumber other = registers[first ? y : x];
+	if (var == null || other == null || var.base != other.base)
+	    return false;
+
+	switch (op) {
+	case Program.ADD:
+	    return first || second;
+	case Program.SUBTRACT:
+	    return first;
+	case Program.MULTIPLY:
+	    return (first || second) && other.words <= 1;
+	case Program.DIVIDE:
+	    return first && other.words == 1;
+	default:
+	    return false;
+	}
+    }
+
+    /*
+     * Update the target of the binary operation 'op' in place. The target is
+     * copied into a MutableBigNumber the first time, later updates reuse its
+     * words.
+     */
+    private static BigNumber updateInPlace(int op, int target, int x, int y, BigNumber[] registers,
+	    Divisor[] divisors) {
+	BigNumber var = registers[target];
+	BigNumber other = registers[x == target ? y : x];
+	MutableBigNumber result = var instanceof MutableBigNumber ? (MutableBigNumber) var : new MutableBigNumber(var);
+	/* The value changes under the Divisor kept for it */
+	divisors[target] = null;
+
+	long word = other.words == 0 ? 0 : other.getLSW();
+	if (other.sign == Sign.MINUS)
+	    word = -word;
+	switch (op) {
+	case Program.ADD:
+	    return result.addAssign(other);
+	case Program.SUBTRACT:
+	    return result.subtractAssign(other);
+	case Program.MULTIPLY:
+	    return result.multiplyAssign(word);
+	default: /* DIVIDE */
+	    result.divideAssign(word);
+	    return result;
+	}
+    }
+
+    /*
+     * Divisor of the value 'd' of register 'r', reused while the register
+     * holds the same value
+     */
+    private static Divisor divisor(int r, BigNumber d, Divisor[] divisors) {
+	Divisor divisor = divisors[r];
+	if (divisor == null || divisor.d != d) {
+	    divisor = new Divisor(d);
+	    divisors[r] = divisor;
+	}
+	return divisor;
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+
 /**
  * Driver program for LP1 level 2
  * 
@@ -8,8 +11,12 @@ public class LP1Driver {
     public static void main(String[] args) {
 	if (args != null && args.length > 0)
 	    BigNumber.DEFAULT_BASE = Long.parseLong(args[0]);
+	if (args != null && args.length > 1)
+	    /* Number of threads for large products */
+	    Product.setParallelism(Integer.parseInt(args[1]));
 
-	Script script = Parser.parse(System.in);
+	/* Read the standard input unbuffered, so that a file redirected to it is mapped */
+	Script script = Parser.parse(new FileInputStream(FileDescriptor.in));
 	Executor.execute(script);
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/**
+ * Class to implement arithmetic modulo a fixed positive BigNumber m. Every
+ * product of two residues is reduced right away, so that no intermediate
+ * result grows beyond twice the size of m. Odd moduli in a binary radix use
+ * Montgomery's reduction, all others Barrett's reduction.
+ *
+ * @author G94
+ */
+public abstract class Modulus {
+	public final BigNumber m;
+
+	Modulus(BigNumber m) {
+		this.m = m;
+	}
+
+	/* Arithmetic modulo the positive BigNumber 'm' */
+	public static Modulus of(BigNumber m) {
+		if (m.bits != 0 && (m.number[0] & 1) == 1)
+			return new Montgomery(m);
+		return new Barrett(m);
+	}
+
+	/* Residue 0 <= x < m in the representation of this modulus */
+	abstract BigNumber enter(BigNumber x);
+
+	/* Residue of the representation x */
+	abstract BigNumber leave(BigNumber x);
+
+	/* Representation of the product t of two representations */
+	abstract BigNumber reduce(BigNumber t);
+
+	/* Product of the representations 'x' and 'y' */
+	public BigNumber multiply(BigNumber x, BigNumber y) {
+		return reduce(Product.product(x, y));
+	}
+
+	/* Square of the representation 'x' */
+	public BigNumber square(BigNumber x) {
+		return reduce(Product.square(x));
+	}
+
+	/*
+	 * Positive BigNumber 'a' raised to the power 'e' modulo m, by sliding
+	 * windows over the bits of e with every product reduced
+	 */
+	public BigNumber power(BigNumber a, BigNumber e) {
+		BigNumber x = Division.divide(a, m).remainder;
+		/* The exponent is scanned bit by bit, in words of 32 bits */
+		if (e.base != BigNumber.BINARY_BASE)
+			e = Conversion.toBase(e, BigNumber.BINARY_BASE);
+		long bitLength = Product.bitLength(e.number, e.words);
+		if (bitLength == 0)
+			/* a^0 = 1 */
+			return Division.divide(new BigNumber(1, m.base), m).remainder;
+
+		BigNumber c = Product.powerByWindows(enter(x), e.number, bitLength, this::square, this::multiply);
+		return leave(c);
+	}
+
+	/* Positive BigNumber 'x' reduced below m by subtracting m */
+	BigNumber subtractModulus(BigNumber x) {
+		while (x.compare(m) >= 0)
+			x = Sum.subtract(x, m);
+		return x;
+	}
+
+	/*
+	 * Montgomery's reduction for an odd m of n words in a binary radix. The
+	 * residue x is represented by x*R mod m with R = base^n, and a product t
+	 * is reduced to t/R mod m by adding multiples of m that clear its lower
+	 * words one at a time, without any division.
+	 */
+	static class Montgomery extends Modulus {
+		private final int n;
+		/* -m^-1 mod base */
+		private final long mInv;
+
+		Montgomery(BigNumber m) {
+			super(m);
+			this.n = m.words;
+			long inv = m.number[0];
+			for (int i = 0; i < 5; i++)
+				/* Newton's iteration doubles the correct bits of m^-1 mod 2^64 */
+				inv *= 2 - m.number[0] * inv;
+			this.mInv = -inv & m.mask;
+		}
+
+		@Override
+		BigNumber enter(BigNumber x) {
+			return Division.divide(BigNumber.shiftWords(x, n), m).remainder;
+		}
+
+		@Override
+		BigNumber leave(BigNumber x) {
+			return reduce(x);
+		}
+
+		@Override
+		BigNumber reduce(BigNumber t) {
+			int bits = m.bits;
+			long mask = m.mask;
+			long[] y = m.number;
+			long[] z = new long[2 * n + 1];
+			System.arraycopy(t.number, 0, z, 0, t.words);
+			for (int i = 0; i < n; i++) {
+				/* z += u*m*base^i with z[i] + u*m[0] = 0 mod base */
+				long u = z[i] * mInv & mask;
+				long carry = 0;
+				for (int j = 0; j < n; j++) {
+					long s = z[i + j] + u * y[j] + carry;
+					z[i + j] = s & mask;
+					carry = s >>> bits;
+				}
+				for (int j = i + n; carry != 0; j++) {
+					long s = z[j] + carry;
+					z[j] = s & mask;
+					carry = s >>> bits;
+				}
+			}
+			/* z / R < 2m */
+			long[] high = new long[n + 1];
+			System.arraycopy(z, n, high, 0, n + 1);
+			return subtractModulus(new BigNumber(high, n + 1, m.base, Sign.PLUS));
+		}
+	}
+
+	/*
+	 * Barrett's reduction for any m, by the reciprocal of a Divisor computed
+	 * once, so that two products and a few subtractions replace the division
+	 */
+	static class Barrett extends Modulus {
+		private final Divisor divisor;
+
+		Barrett(BigNumber m) {
+			super(m);
+			this.divisor = new Divisor(m);
+		}
+
+		@Override
+		BigNumber enter(BigNumber x) {
+			return x;
+		}
+
+		@Override
+		BigNumber leave(BigNumber x) {
+			return x;
+		}
+
+		@Override
+		BigNumber reduce(BigNumber t) {
+			return divisor.reduce(t).remainder;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+import java.util.Arrays;
+
+/**
+ * Class to implement a BigNumber that is updated in place. The words are kept
+ * in an array with spare capacity, so that a running sum or product grows its
+ * array only now and then, instead of allocating a new number for every
+ * operation like the static operations do.
+ *
+ * @author G94
+ */
+public class MutableBigNumber extends BigNumber {
+    /* Copy of BigNumber 'x' with room to grow */
+    public MutableBigNumber(BigNumber x) {
+	super(Arrays.copyOf(x.number, x.words + (x.words >> 1) + 2), x.words, x.base, x.sign);
+    }
+
+    /* this = this + b */
+    public MutableBigNumber addAssign(BigNumber b) {
+	if (b.words == 0)
+	    /* a + 0 = a */
+	    return this;
+	if (sign == b.sign || words == 0)
+	    addMagnitude(b, b.sign);
+	else
+	    /* a + (-b) = a - b */
+	    subtractMagnitude(b);
+	return this;
+    }
+
+    /* this = this - b */
+    public MutableBigNumber subtractAssign(BigNumber b) {
+	if (b.words == 0)
+	    /* a - 0 = a */
+	    return this;
+	if (b == this) {
+	    /* a - a = 0 */
+	    setZero();
+	    return this;
+	}
+	if (sign != b.sign || words == 0)
+	    /* a - (-b) = a + b */
+	    addMagnitude(b, Sign.negate(b.sign));
+	else
+	    subtractMagnitude(b);
+	return this;
+    }
+
+    /* this = this * w */
+    public MutableBigNumber multiplyAssign(long w) {
+	if (w == 0 || words == 0) {
+	    setZero();
+	    return this;
+	}
+	if (w < 0) {
+	    sign = Sign.negate(sign);
+	    w = -w;
+	}
+	if (w >= base) {
+	    /* Not a single word, multiply by the BigNumber */
+	    Sign s = sign;
+	    set(Product.product(this, w));
+	    sign = s;
+	    return this;
+	}
+
+	ensureCapacity(words + 1);
+	long[] x = number;
+	long carry = 0;
+	if (bits != 0) {
+	    /* Binary radix: split the product with a shift and a mask */
+	    for (int i = 0; i < words; i++) {
+		long prod = x[i] * w + carry;
+		carry = prod >>> bits;
+		x[i] = prod & mask;
+	    }
+	} else {
+	    for (int i = 0; i < words; i++) {
+		long prod = x[i] * w + carry;
+		carry = prod / base;
+		x[i] = prod % base;
+	    }
+	}
+	x[words] = carry;
+	setWords(words + 1);
+	return this;
+    }
+
+    /*
+     * this = this * base^k, or this / base^-k truncated towards zero for a
+     * negative k
+     */
+    public MutableBigNumber shiftLimbs(int k) {
+	if (k == 0 || words == 0)
+	    return this;
+	if (k > 0) {
+	    ensureCapacity(words + k);
+	    System.arraycopy(number, 0, number, k, words);
+	    Arrays.fill(number, 0, k, 0L);
+	    setWords(words + k);
+	} else if (-k >= words) {
+	    setZero();
+	} else {
+	    System.arraycopy(number, -k, number, 0, words + k);
+	    Arrays.fill(number, words + k, words, 0L);
+	    setWords(words + k);
+	}
+	return this;
+    }
+
+    /*
+     * this = this / w, truncated towards zero. Returns the remainder with
+     * the sign of w, as Division.divide does.
+     */
+    public long divideAssign(long w) {
+	if (w == 0)
+	    /* a / 0 = Infinity */
+	    throw new ArithmeticException("Divide by zero");
+	long d = Math.abs(w);
+	if (d >= base) {
+	    /* Not a single word, divide by the BigNumber */
+	    Division.Result qr = Division.divide(this, new BigNumber(d, base));
+	    set(qr.quotient);
+	    if (w < 0)
+		sign = Sign.negate(sign);
+	    long r = 0;
+	    for (int i = qr.remainder.words - 1; i >= 0; i--)
+		r = r * base + qr.remainder.number[i];
+	    return w < 0 ? -r : r;
+	}
+
+	if (w < 0)
+	    sign = Sign.negate(sign);
+	long[] x = number;
+	long r = 0;
+	if (bits != 0) {
+	    /* Binary radix: r*base + word may need all 64 bits */
+	    for (int i = words - 1; i >= 0; i--) {
+		long num = (r << bits) | x[i];
+		r = Long.remainderUnsigned(num, d);
+		x[i] = Long.divideUnsigned(num, d);
+	    }
+	} else {
+	    for (int i = words - 1; i >= 0; i--) {
+		long num = r * base + x[i];
+		r = num % d;
+		x[i] = num / d;
+	    }
+	}
+	setWords(words);
+	return w < 0 ? -r : r;
+    }
+
+    /*
+     * Add the magnitude of 'b' to the magnitude of this, and take the given
+     * sign
+     */
+    private void addMagnitude(BigNumber b, Sign s) {
+	int n = Math.max(words, b.words);
+	ensureCapacity(n + 1);
+	long[] x = number, y = b.number;
+	/* Words of this above its MSD are added as zeros */
+	Arrays.fill(x, words, n + 1, 0L);
+	long carry = 0;
+	int i = 0;
+	if (bits != 0) {
+	    for (; i < b.words; i++) {
+		long s1 = x[i] + y[i] + carry;
+		carry = s1 >>> bits;
+		x[i] = s1 & mask;
+	    }
+	    for (; carry != 0; i++) {
+		long s1 = x[i] + carry;
+		carry = s1 >>> bits;
+		x[i] = s1 & mask;
+	    }
+	} else {
+	    for (; i < b.words; i++) {
+		long s1 = x[i] + y[i] + carry;
+		carry = s1 >= base ? 1 : 0;
+		x[i] = s1 - carry * base;
+	    }
+	    for (; carry != 0; i++) {
+		long s1 = x[i] + carry;
+		carry = s1 >= base ? 1 : 0;
+		x[i] = s1 - carry * base;
+	    }
+	}
+	sign = s;
+	setWords(n + 1);
+    }
+
+    /*
+     * Subtract the magnitude of 'b' from the magnitude of this. The sign
+     * flips when the magnitude of 'b' is the larger.
+     */
+    private void subtractMagnitude(BigNumber b) {
+	int cmp = compareMagnitude(this, b);
+	if (cmp == 0) {
+	    setZero();
+	    return;
+	}
+	int n = Math.max(words, b.words);
+	ensureCapacity(n);
+	long[] x = number, y = b.number;
+	Arrays.fill(x, words, n, 0L);
+	long borrow = 0;
+	if (cmp > 0) {
+	    /* |this| - |b| */
+	    int i = 0;
+	    for (; i < b.words; i++) {
+		long d = x[i] - y[i] - borrow;
+		borrow = d < 0 ? 1 : 0;
+		x[i] = d + borrow * base;
+	    }
+	    for (; borrow != 0; i++) {
+		long d = x[i] - borrow;
+		borrow = d < 0 ? 1 : 0;
+		x[i] = d + borrow * base;
+	    }
+	} else {
+	    /* |b| - |this| */
+	    for (int i = 0; i < b.words; i++) {
+		long d = y[i] - x[i] - borrow;
+		borrow = d < 0 ? 1 : 0;
+		x[i] = d + borrow * base;
+	    }
+	    sign = Sign.negate(sign);
+	}
+	setWords(n);
+    }
+
+    /* Take over the words and sign of the new BigNumber 'c' */
+    private void set(BigNumber c) {
+	number = c.number;
+	sign = c.sign;
+	setWords(c.words);
+    }
+
+    private void setZero() {
+	sign = Sign.PLUS;
+	setWords(0);
+    }
+
+    /* Count the significant words among the first 'length' */
+    private void setWords(int length) {
+	words = significantWords(number, length);
+	size = words;
+	if (words == 0)
+	    sign = Sign.PLUS;
+    }
+}
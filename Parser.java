@@ -1,29 +1,166 @@
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Scanner;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
 
 /**
  * Class to parse the input for Level 2
- * 
+ *
  * @author G94
  */
 public class Parser {
+    /* Bytes read from a channel at a time */
+    private static final int READ_SIZE = 1 << 16;
+
     /*
-     * Parse the input from the given stream into a String[] for future
-     * execution. Every line is stored in the array in the position specified by
-     * the line_no component of a single line, with direct one-to-one from
-     * line_no to array index.
+     * Parse the script from the given stream. A stream over a regular file,
+     * such as System.in redirected from a file, is memory mapped, any other
+     * stream is read through a channel.
      */
     public static Script parse(InputStream src) {
-	Scanner in = new Scanner(src);
-	/* Ignore the first position for easy line number addressing */
-	String[] lines = new String[Script.MAX_LINE_COUNT + 1];
+	try {
+	    if (src instanceof FileInputStream) {
+		FileChannel channel = ((FileInputStream) src).getChannel();
+		ByteBuffer text = map(channel);
+		if (text != null)
+		    return parse(text);
+		return parse(channel);
+	    }
+	    return parse(Channels.newChannel(src));
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    /* Parse the script in the given file, memory mapped */
+    public static Script parse(Path path) throws IOException {
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+	    ByteBuffer text = map(channel);
+	    return parse(text != null ? text : ByteBuffer.allocate(0));
+	}
+    }
+
+    /* Parse the script read from the given channel to its end */
+    public static Script parse(ReadableByteChannel channel) throws IOException {
+	ByteBuffer text = ByteBuffer.allocate(READ_SIZE);
+	while (channel.read(text) >= 0) {
+	    if (!text.hasRemaining()) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.addExact(text.capacity(), text.capacity() >> 1));
+		text.flip();
+		larger.put(text);
+		text = larger;
+	    }
+	}
+	text.flip();
+	return parse(text);
+    }
+
+    /*
+     * Map the rest of the file read by 'channel', or return null if it is
+     * not a regular file of some bytes
+     */
+    private static ByteBuffer map(FileChannel channel) {
+	try {
+	    long position = channel.position(), size = channel.size();
+	    if (size <= position)
+		return null;
+	    if (size - position > Integer.MAX_VALUE)
+		throw new IllegalArgumentException("Script of " + (size - position) + " bytes is too large");
+	    return channel.map(FileChannel.MapMode.READ_ONLY, position, size - position);
+	} catch (IOException e) {
+	    /* A pipe or a terminal */
+	    return null;
+	}
+    }
+
+    /*
+     * Parse the pairs of a line number and an expression, separated by
+     * white space, in the given bytes. The line table grows as needed, and
+     * is sorted by line number if the lines are not in order; a line given
+     * twice keeps its last expression. The expressions stay ranges of the
+     * bytes.
+     */
+    static Script parse(ByteBuffer text) {
+	int length = text.limit();
+	int[] numbers = new int[64], from = new int[64], to = new int[64];
 	int size = 0;
-	while (in.hasNext()) {
-	    int line_no = in.nextInt();
-	    lines[line_no] = in.next();
-	    size++;
+	boolean sorted = true;
+	int i = skipSpace(text, 0, length);
+	while (i < length) {
+	    /* Line number */
+	    int start = i;
+	    long number = 0;
+	    for (; i < length && !isSpace(text.get(i)); i++) {
+		int digit = text.get(i) - '0';
+		if (digit < 0 || digit > 9 || (number = number * 10 + digit) > Integer.MAX_VALUE)
+		    throw new InputMismatchException("Line number expected at byte " + start);
+	    }
+	    /* Expression */
+	    i = skipSpace(text, i, length);
+	    if (i == length)
+		throw new NoSuchElementException("No expression for line " + number);
+	    if (size == numbers.length) {
+		int capacity = size + (size >> 1);
+		numbers = Arrays.copyOf(numbers, capacity);
+		from = Arrays.copyOf(from, capacity);
+		to = Arrays.copyOf(to, capacity);
+	    }
+	    if (size > 0 && number <= numbers[size - 1])
+		sorted = false;
+	    numbers[size] = (int) number;
+	    from[size] = i;
+	    while (i < length && !isSpace(text.get(i)))
+		i++;
+	    to[size++] = i;
+	    i = skipSpace(text, i, length);
 	}
-	in.close();
-	return new Script(lines, size);
+	if (!sorted)
+	    size = sort(numbers, from, to, size);
+	return new Script(text, numbers, from, to, size);
+    }
+
+    /*
+     * Sort the lines by their number, keeping the last of the lines with the
+     * same number, and return the number of lines left
+     */
+    private static int sort(int[] numbers, int[] from, int[] to, int size) {
+	/* Sort by number, and by the order in the input within a number */
+	long[] keys = new long[size];
+	for (int i = 0; i < size; i++)
+	    keys[i] = (long) numbers[i] << 32 | i;
+	Arrays.sort(keys);
+	int[] oldFrom = Arrays.copyOf(from, size), oldTo = Arrays.copyOf(to, size);
+	int n = 0;
+	for (int k = 0; k < size; k++) {
+	    int i = (int) keys[k];
+	    int number = (int) (keys[k] >>> 32);
+	    if (n > 0 && numbers[n - 1] == number)
+		/* The later line replaces the earlier one */
+		n--;
+	    numbers[n] = number;
+	    from[n] = oldFrom[i];
+	    to[n] = oldTo[i];
+	    n++;
+	}
+	return n;
+    }
+
+    private static int skipSpace(ByteBuffer text, int i, int length) {
+	while (i < length && isSpace(text.get(i)))
+	    i++;
+	return i;
+    }
+
+    private static boolean isSpace(byte b) {
+	return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0b;
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,11 @@
-import java.util.Iterator;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
 
 /**
  * Class to implement product, power and factorial operations of BigNumbers
@@ -7,85 +13,694 @@ import java.util.ListIterator;
  * @author G94
  */
 public class Product {
+	/*
+	 * Pool to run the independent sub-products of large products on, null
+	 * runs every product sequentially. Sub-products of atleast
+	 * PARALLEL_THRESHOLD words are forked, smaller ones run in the thread that
+	 * needs them. The result does not depend on the mode.
+	 */
+	private static ForkJoinPool pool = null;
+	public static int PARALLEL_THRESHOLD = 2000;
+
+	/*
+	 * Run large products on the given pool, forking sub-products of atleast
+	 * 'threshold' words. A null pool turns the parallel mode off.
+	 */
+	public static void setParallel(ForkJoinPool pool, int threshold) {
+		Product.pool = pool;
+		PARALLEL_THRESHOLD = threshold;
+	}
+
+	/* Run large products on a new pool of 'parallelism' threads */
+	public static void setParallelism(int parallelism) {
+		setParallel(parallelism > 1 ? new ForkJoinPool(parallelism) : null, PARALLEL_THRESHOLD);
+	}
+
+	/* Pool large products run on, null when running sequentially */
+	public static ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/*
+	 * Start the given product of 'words' words in parallel if it is large
+	 * enough and the caller already runs on the pool, otherwise compute it
+	 * right away into a completed task. join() on the task returns the
+	 * product either way.
+	 */
+	static <T> ForkJoinTask<T> fork(Callable<T> product, int words) {
+		if (pool != null && words >= PARALLEL_THRESHOLD && ForkJoinTask.getPool() == pool)
+			return ForkJoinTask.adapt(product).fork();
+		return new Done<>(call(product));
+	}
+
+	/* Run the given product, wrapping only checked exceptions */
+	private static <T> T call(Callable<T> product) {
+		try {
+			return product.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A task completed with the result of a product computed by the caller
+	 */
+	private static class Done<T> extends ForkJoinTask<T> {
+		private static final long serialVersionUID = 1L;
+		private T result;
+
+		Done(T result) {
+			complete(result);
+		}
+
+		@Override
+		public T getRawResult() {
+			return result;
+		}
+
+		@Override
+		protected void setRawResult(T value) {
+			result = value;
+		}
+
+		@Override
+		protected boolean exec() {
+			return true;
+		}
+	}
+
+	/*
+	 * Compute the given product of 'words' words on the pool if it is large
+	 * enough and the caller is not already running on it
+	 */
+	private static BigNumber compute(Callable<BigNumber> product, int words) {
+		ForkJoinPool pool = Product.pool;
+		if (pool != null && words >= PARALLEL_THRESHOLD && ForkJoinTask.getPool() != pool)
+			return pool.invoke(ForkJoinTask.adapt(product));
+		return call(product);
+	}
+
 	/* Product of BigNumber 'a' and BigNumber 'b' */
 	public static BigNumber product(BigNumber a, BigNumber b) {
 		if (a == null || b == null)
 			return null;
+		if (a == b)
+			/* a * a */
+			return square(a);
 
-		Sign aSign = a.sign;
-		a.sign = Sign.PLUS;
-		Sign bSign = b.sign;
-		b.sign = Sign.PLUS;
-
-		BigNumber c = productNbyN(a, b);
-		c.sign = Sign.product(aSign, bSign);
-
-		a.sign = aSign;
-		b.sign = bSign;
+		/* productNbyN reads only the words, the operands are left untouched */
+		BigNumber c = compute(() -> productNbyN(a, b), Math.min(a.words, b.words));
+		c.sign = Sign.product(a.sign, b.sign);
 		return c;
 	}
 
 	/* Product of BigNumber 'a' and Long 'b' */
 	public static BigNumber product(BigNumber a, long b) {
 		if (b < a.base) {
-			BigNumber c = new BigNumber(null, a.base, Sign.product(a.sign, Sign.from(b)));
+			long base = a.base;
+			long[] x = a.number;
+			long[] z = new long[a.words + 1];
 			long carry = 0;
-			Iterator<Long> wIterator = a.wordIterator();
-			while (wIterator.hasNext()) {
-				/* Multiply 'a' by 'b' from the LSD to MSD word by word */
-				long prod = wIterator.next() * b + carry;
-				carry = prod / a.base;
-				c.addWord(prod % a.base);
+			if (a.bits != 0) {
+				/*
+				 * Binary radix: the product of two words and a carry fits in
+				 * an unsigned long, split it with a shift and a mask
+				 */
+				int bits = a.bits;
+				long mask = a.mask;
+				for (int i = 0; i < a.words; i++) {
+					/* Multiply 'a' by 'b' from the LSD to MSD word by word */
+					long prod = x[i] * b + carry;
+					carry = prod >>> bits;
+					z[i] = prod & mask;
+
+				}
+			} else {
+				for (int i = 0; i < a.words; i++) {
+					/* Multiply 'a' by 'b' from the LSD to MSD word by word */
+					long prod = x[i] * b + carry;
+					carry = prod / base;
+					z[i] = prod % base;
 
+				}
 			}
-			if (carry != 0)
-				c.addWord(carry);
-			return c;
+			z[a.words] = carry;
+			return new BigNumber(z, z.length, base, Sign.product(a.sign, Sign.from(b)));
 		}
 		return product(a, new BigNumber(b, a.base, Sign.from(b)));
 	}
 
+	/*
+	 * Word counts at which productNbyN moves from schoolbook to Karatsuba and
+	 * from Karatsuba to Toom-3, for the smaller of the two operands
+	 */
+	public static int KARATSUBA_THRESHOLD = 64;
+	public static int TOOM3_THRESHOLD = 256;
+	/* Word count of the smaller operand from which products use transforms */
+	public static int NTT_THRESHOLD = 1000;
+
+	/* n from which factorial uses the prime swing instead of productOfRange */
+	public static int SWING_THRESHOLD = 512;
+
 	/*
 	 * Internal method to find the product of BigNumber 'a' and BigNumber 'b',
-	 * irrespective of the signs. This method uses Karatsuba algorithm to find
-	 * the product in O(n^log(3)) time.
+	 * irrespective of the signs. The algorithm is chosen by the size of the
+	 * operands: schoolbook O(n^2) for small ones, Karatsuba O(n^log(3)) in the
+	 * middle, Toom-3 O(n^log3(5)) for large ones and number theoretic
+	 * transforms O(n log(n)) for the largest. Operands of very different
+	 * sizes are multiplied in chunks of the smaller size.
 	 */
 	private static BigNumber productNbyN(BigNumber a, BigNumber b) {
-		if (a.words == 0 || b.words == 0)
+		if (a.words < b.words) {
+			BigNumber t = a;
+			a = b;
+			b = t;
+		}
+		if (b.words == 0)
 			/* Multiplication by zero */
 			return new BigNumber(0, a.base);
 
-		/* Base condition */
-		if (a.words == 1)
-			return product(b, a.getMSW());
-		if (b.words == 1)
-			return product(a, b.getMSW());
+		if (b.words >= NTT_THRESHOLD && Convolution.fits(a, b))
+			return Convolution.product(a, b);
+		if (b.words < TOOM3_THRESHOLD) {
+			/* Schoolbook, chunks or Karatsuba on slices, into one array */
+			long[] z = new long[a.words + b.words];
+			multiplyWithScratch(new Slice(a), new Slice(b), z, 0);
+			return new BigNumber(z, z.length, a.base, Sign.PLUS);
+		}
+		if (a.words >= 2 * b.words)
+			return productByChunks(a, b);
+		return productByToom3(a, b);
+	}
+
+	/*
+	 * Write the product of the slices 'x' and 'y' into z[zo..zo+n+m), for n
+	 * and m their lengths and the smaller below TOOM3_THRESHOLD. Halves and
+	 * chunks are taken as slices without copying, and their products are
+	 * written straight into their place in z.
+	 */
+	private static void multiplyInto(Slice x, Slice y, long[] z, int zo) {
+		if (x.length < y.length) {
+			Slice t = x;
+			x = y;
+			y = t;
+		}
+		/* Karatsuba halves of 3 words or less do not get shorter */
+		if (y.length < KARATSUBA_THRESHOLD || y.length <= 3)
+			schoolbookInto(x, y, z, zo);
+		else if (x.length >= 2 * y.length)
+			chunksInto(x, y, z, zo);
+		else
+			karatsubaInto(x, y, z, zo);
+	}
+
+	/*
+	 * multiplyInto with the scratch it needs reserved on the current thread,
+	 * for a product computed at the top or forked to another thread
+	 */
+	private static void multiplyWithScratch(Slice x, Slice y, long[] z, int zo) {
+		Scratch scratch = Scratch.get();
+		int mark = scratch.reserve(scratchWords(Math.max(x.length, y.length), Math.min(x.length, y.length)));
+		try {
+			multiplyInto(x, y, z, zo);
+		} finally {
+			scratch.release(mark);
+		}
+	}
+
+	/*
+	 * Words of scratch taken by multiplyInto for slices of lengths n >= m,
+	 * or by squareInto for n = m. Chunks take atmost n + m words for the
+	 * products of the odd chunks, and every level of Karatsuba on t words
+	 * takes 4(h+1) words, h = (t+1)/2, for the sums of the halves and their
+	 * product, while the level below runs on h+1 words.
+	 */
+	static int scratchWords(int n, int m) {
+		int words = 0, t = n;
+		if (n >= 2 * m) {
+			words = n + m;
+			t = m;
+		}
+		while (t >= KARATSUBA_THRESHOLD && t > 3) {
+			int h = (t + 1) / 2;
+			words += 4 * (h + 1);
+			t = h + 1;
+		}
+		return words;
+	}
+
+	/*
+	 * Long multiplication of the slices 'x' and 'y' into z[zo..zo+n+m) in
+	 * O(n*m) word operations
+	 */
+	private static void schoolbookInto(Slice x, Slice y, long[] z, int zo) {
+		long base = x.base;
+		long[] xw = x.words, yw = y.words;
+		int xo = x.offset, yo = y.offset;
+		int n = x.length, m = y.length;
+		Arrays.fill(z, zo, zo + n + m, 0L);
+		if (x.bits != 0) {
+			/*
+			 * Binary radix: word * word + word + carry fits in an unsigned long,
+			 * split it with a shift and a mask
+			 */
+			int bits = x.bits;
+			long mask = x.mask;
+			for (int j = 0; j < m; j++) {
+				long yj = yw[yo + j], carry = 0;
+				for (int i = 0; i < n; i++) {
+					long prod = xw[xo + i] * yj + z[zo + i + j] + carry;
+					carry = prod >>> bits;
+					z[zo + i + j] = prod & mask;
+				}
+				z[zo + n + j] = carry;
+			}
+		} else {
+			for (int j = 0; j < m; j++) {
+				long yj = yw[yo + j], carry = 0;
+				for (int i = 0; i < n; i++) {
+					long prod = xw[xo + i] * yj + z[zo + i + j] + carry;
+					carry = prod / base;
+					z[zo + i + j] = prod % base;
+				}
+				z[zo + n + j] = carry;
+			}
+		}
+	}
+
+	/*
+	 * Product of the slice 'x' and a slice 'y' of atmost half its length, by
+	 * chunks of 'x' of the length of 'y'. The products of the even chunks
+	 * do not overlap and go straight into z, the odd ones are written into
+	 * scratch and added on.
+	 */
+	private static void chunksInto(Slice x, Slice y, long[] z, int zo) {
+		int m = y.length;
+		int chunks = (x.length + m - 1) / m;
+		Arrays.fill(z, zo, zo + x.length + m, 0L);
+		Scratch scratch = Scratch.get();
+		int mark = scratch.mark();
+		Slice[] ci = new Slice[chunks];
+		List<ForkJoinTask<Object>> c = new ArrayList<>(chunks);
+		try {
+			for (int i = 0; i < chunks; i++) {
+				/* x = ... + x_i * base^(i*m) + ... */
+				Slice xi = x.slice(i * m, (i + 1) * m);
+				long[] zi;
+				int offset;
+				if (i % 2 == 0) {
+					zi = z;
+					offset = zo + i * m;
+				} else {
+					ci[i] = scratch.take(xi.length + m, x);
+					zi = ci[i].words;
+					offset = ci[i].offset;
+				}
+				c.add(fork(() -> {
+					multiplyWithScratch(xi, y, zi, offset);
+					return null;
+				}, m));
+			}
+			for (ForkJoinTask<Object> task : c)
+				task.join();
+			for (int i = 1; i < chunks; i += 2)
+				ci[i].significant().addTo(z, zo + i * m);
+		} finally {
+			/* After a failure the other chunks may still write into the scratch */
+			for (ForkJoinTask<Object> task : c)
+				task.quietlyJoin();
+			scratch.release(mark);
+		}
+	}
+
+	/*
+	 * Internal method to find the product of BigNumber 'a' and a much smaller
+	 * BigNumber 'b', by multiplying 'b' with chunks of 'a' of the same size
+	 * as 'b' so that every product is balanced
+	 */
+	private static BigNumber productByChunks(BigNumber a, BigNumber b) {
+		int chunks = (a.words + b.words - 1) / b.words;
+		List<ForkJoinTask<BigNumber>> c = new ArrayList<>(chunks);
+		for (int i = 0; i < chunks; i++) {
+			/* a = ... + a_i * base^(i*m) + ... */
+			BigNumber ai = BigNumber.words(a, i * b.words, (i + 1) * b.words);
+			c.add(fork(() -> productNbyN(ai, b), b.words));
+		}
+		long[] z = new long[a.words + b.words];
+		for (int i = 0; i < chunks; i++)
+			addShifted(z, c.get(i).join(), i * b.words, a.base);
+		return new BigNumber(z, z.length, a.base, Sign.PLUS);
+	}
+
+	/*
+	 * Karatsuba product of the slices 'x' and 'y', n/2 < m <= n, into
+	 * z[zo..zo+n+m) in O(n^log(3)) time. With x = x2*base^h + x1 and y
+	 * likewise, x1*y1 and x2*y2 are written into the low and high words of z
+	 * and (x1+x2)*(y1+y2) - x1*y1 - x2*y2 is added in the middle.
+	 */
+	private static void karatsubaInto(Slice x, Slice y, long[] z, int zo) {
+		int n = x.length, m = y.length;
+		int h = (n + 1) / 2;
+		Slice x1 = x.slice(0, h), x2 = x.slice(h, n);
+		Slice y1 = y.slice(0, h), y2 = y.slice(h, m);
+
+		/* c1 = x1 * y1 into z[0..2h), c2 = x2 * y2 into z[2h..n+m) */
+		ForkJoinTask<Object> c1 = fork(() -> {
+			multiplyWithScratch(x1, y1, z, zo);
+			return null;
+		}, h);
+		ForkJoinTask<Object> c2 = fork(() -> {
+			multiplyWithScratch(x2, y2, z, zo + 2 * h);
+			return null;
+		}, m - h);
+
+		/* c12 = (x1+x2) * (y1+y2), with the sums and c12 in scratch */
+		Scratch scratch = Scratch.get();
+		int mark = scratch.mark();
+		try {
+			Slice sums = scratch.take(2 * (h + 1), x);
+			Slice.sum(x1, x2, sums.words, sums.offset);
+			Slice.sum(y1, y2, sums.words, sums.offset + h + 1);
+			Slice c12 = scratch.take(2 * (h + 1), x);
+			multiplyInto(sums.slice(0, h + 1), sums.slice(h + 1, 2 * (h + 1)), c12.words, c12.offset);
+			c1.join();
+			c2.join();
+			combineKaratsuba(c12, z, zo, h, n + m, x);
+		} finally {
+			scratch.release(mark);
+		}
+	}
+
+	/*
+	 * z[zo..zo+size) holds c2*base^2h + c1, add (c12 - c2 - c1)*base^h to it.
+	 * The middle term is atleast zero and fits in the words above h.
+	 */
+	private static void combineKaratsuba(Slice c12, long[] z, int zo, int h, int size, Slice like) {
+		new Slice(z, zo, 2 * h, like).subtractFrom(c12.words, c12.offset);
+		new Slice(z, zo + 2 * h, size - 2 * h, like).subtractFrom(c12.words, c12.offset);
+		c12.significant().addTo(z, zo + h);
+	}
+
+	/*
+	 * Internal method to find the product of BigNumber 'a' and BigNumber 'b'
+	 * by Toom-Cook 3-way algorithm in O(n^log3(5)) time. With x = base^k,
+	 * a(x) = a2*x^2 + a1*x + a0 and b(x) likewise, c(x) = a(x)*b(x) is
+	 * evaluated at 0, 1, -1, -2 and infinity, and interpolated back with
+	 * Bodrato's sequence, which divides only by 2 and 3.
+	 */
+	private static BigNumber productByToom3(BigNumber a, BigNumber b) {
+		int k = (a.words + 2) / 3;
+		BigNumber a0 = BigNumber.words(a, 0, k), a1 = BigNumber.words(a, k, 2 * k);
+		BigNumber a2 = BigNumber.words(a, 2 * k, a.words);
+		BigNumber b0 = BigNumber.words(b, 0, k), b1 = BigNumber.words(b, k, 2 * k);
+		BigNumber b2 = BigNumber.words(b, 2 * k, b.words);
 
-		int middle = (Math.min(a.words, b.words) + 1) / 2;
-		/* a = a2*base^m + a1 */
-		BigNumber a1 = a.splitByIndex(0, middle);
-		BigNumber a2 = a.splitByIndex(middle, a.words);
-		/* b = b2*base^m + b1 */
-		BigNumber b1 = b.splitByIndex(0, middle);
-		BigNumber b2 = b.splitByIndex(middle, b.words);
+		/* Evaluation: p(1) = p0 + p1, p(-1) = p0 - p1, p(-2) = 2*(p(-1) + p2) - p0 */
+		BigNumber ap = Sum.add(a0, a2);
+		BigNumber a1Value = Sum.add(ap, a1), aM1Value = Sum.subtract(ap, a1);
+		BigNumber aM2Value = Sum.subtract(product(Sum.add(aM1Value, a2), 2), a0);
+		BigNumber bp = Sum.add(b0, b2);
+		BigNumber b1Value = Sum.add(bp, b1), bM1Value = Sum.subtract(bp, b1);
+		BigNumber bM2Value = Sum.subtract(product(Sum.add(bM1Value, b2), 2), b0);
 
-		/* c1 = a1 * b1 */
-		BigNumber c1 = productNbyN(a1, b1);
-		/* c2 = a2 * b2 */
-		BigNumber c2 = productNbyN(a2, b2);
-		/* c12 = (a1+a2) * (b1+b2) */
-		BigNumber c12 = productNbyN(BigNumber.add(a1, a2), BigNumber.add(b1, b2));
+		/* Pointwise products */
+		ForkJoinTask<BigNumber> r0 = fork(() -> productNbyN(a0, b0), k);
+		ForkJoinTask<BigNumber> r1Value = fork(() -> product(a1Value, b1Value), k);
+		ForkJoinTask<BigNumber> rM1Value = fork(() -> product(aM1Value, bM1Value), k);
+		ForkJoinTask<BigNumber> rM2Value = fork(() -> product(aM2Value, bM2Value), k);
+		BigNumber r4 = productNbyN(a2, b2);
+		return interpolateToom3(r0.join(), r1Value.join(), rM1Value.join(), rM2Value.join(), r4, k,
+				a.words + b.words + 1);
+	}
+
+	/*
+	 * Interpolate c(x) = r4*x^4 + r3*x^3 + r2*x^2 + r1*x + r0 from its values
+	 * at 0, 1, -1, -2 and infinity, and evaluate it at x = base^k into 'size'
+	 * words
+	 */
+	private static BigNumber interpolateToom3(BigNumber r0, BigNumber r1Value, BigNumber rM1Value,
+			BigNumber rM2Value, BigNumber r4, int k, int size) {
+		long base = r0.base;
+		/* Interpolation */
+		BigNumber r3 = Division.divide(Sum.subtract(rM2Value, r1Value), 3).quotient;
+		BigNumber r1 = Division.divide(Sum.subtract(r1Value, rM1Value), 2).quotient;
+		BigNumber r2 = Sum.subtract(rM1Value, r0);
+		r3 = Sum.add(Division.divide(Sum.subtract(r2, r3), 2).quotient, product(r4, 2));
+		r2 = Sum.subtract(Sum.add(r2, r1), r4);
+		r1 = Sum.subtract(r1, r3);
+
+		/* c = r4*x^4 + r3*x^3 + r2*x^2 + r1*x + r0 */
+		long[] z = new long[size];
+		addShifted(z, r0, 0, base);
+		addShifted(z, r1, k, base);
+		addShifted(z, r2, 2 * k, base);
+		addShifted(z, r3, 3 * k, base);
+		addShifted(z, r4, 4 * k, base);
+		return new BigNumber(z, size, base, Sign.PLUS);
+	}
+
+	/* Square of BigNumber 'a' */
+	public static BigNumber square(BigNumber a) {
+		if (a == null)
+			return null;
+		return compute(() -> squareN(a), a.words);
+	}
+
+	/*
+	 * Internal method to find the square of BigNumber 'a', irrespective of its
+	 * sign, with the same size tiers as productNbyN. Squaring computes every
+	 * cross product a_i*a_j once instead of twice, and its sub-products are
+	 * squares again.
+	 */
+	private static BigNumber squareN(BigNumber a) {
+		if (a.words == 0)
+			return new BigNumber(0, a.base);
+		if (a.words >= NTT_THRESHOLD && Convolution.fits(a, a))
+			return Convolution.product(a, a);
+		if (a.words < TOOM3_THRESHOLD) {
+			/* Schoolbook or Karatsuba on slices, into one array */
+			long[] z = new long[2 * a.words];
+			squareWithScratch(new Slice(a), z, 0);
+			return new BigNumber(z, z.length, a.base, Sign.PLUS);
+		}
+		return squareByToom3(a);
+	}
 
-		/* c = c2*base^2m + (c12 - c2 - c1)*base^m + c1 */
-		c12 = BigNumber.subtract(c12, BigNumber.add(c2, c1));
-		c12.addLSZeros(middle); /* multiplication by Base^middle */
-		c2.addLSZeros(middle * 2); /* multiplication by Base^(2*middle) */
+	/* squareInto with the scratch it needs reserved on the current thread */
+	private static void squareWithScratch(Slice x, long[] z, int zo) {
+		Scratch scratch = Scratch.get();
+		int mark = scratch.reserve(scratchWords(x.length, x.length));
+		try {
+			squareInto(x, z, zo);
+		} finally {
+			scratch.release(mark);
+		}
+	}
 
-		return BigNumber.add(BigNumber.add(c2, c12), c1);
+	/* Write the square of the slice 'x' into z[zo..zo+2n) */
+	private static void squareInto(Slice x, long[] z, int zo) {
+		if (x.length < KARATSUBA_THRESHOLD || x.length <= 3)
+			squareBySchoolbookInto(x, z, zo);
+		else
+			squareByKaratsubaInto(x, z, zo);
+	}
+
+	/*
+	 * Long multiplication square of the slice 'x' into z[zo..zo+2n). The
+	 * cross products x_i*x_j, i < j, are summed once and doubled, and then
+	 * the squares x_i^2 are added on the diagonal.
+	 */
+	private static void squareBySchoolbookInto(Slice x, long[] z, int zo) {
+		long base = x.base;
+		int bits = x.bits;
+		long mask = x.mask;
+		long[] xw = x.words;
+		int xo = x.offset;
+		int n = x.length;
+		Arrays.fill(z, zo, zo + 2 * n, 0L);
+
+		/* Cross products */
+		for (int i = 0; i < n; i++) {
+			long xi = xw[xo + i], carry = 0;
+			for (int j = i + 1; j < n; j++) {
+				long prod = xi * xw[xo + j] + z[zo + i + j] + carry;
+				carry = bits != 0 ? prod >>> bits : prod / base;
+				z[zo + i + j] = bits != 0 ? prod & mask : prod % base;
+			}
+			z[zo + i + n] = carry;
+		}
+
+		/* Double them */
+		long carry = 0;
+		for (int i = zo; i < zo + 2 * n; i++) {
+			long s = 2 * z[i] + carry;
+			carry = s >= base ? 1 : 0;
+			z[i] = s - carry * base;
+		}
+
+		/* Add the squares on the diagonal */
+		carry = 0;
+		for (int i = 0; i < n; i++) {
+			long xi = xw[xo + i];
+			long prod = xi * xi + z[zo + 2 * i] + carry;
+			long high = bits != 0 ? prod >>> bits : prod / base;
+			z[zo + 2 * i] = bits != 0 ? prod & mask : prod % base;
+			long s = z[zo + 2 * i + 1] + high;
+			carry = s >= base ? 1 : 0;
+			z[zo + 2 * i + 1] = s - carry * base;
+		}
+	}
+
+	/*
+	 * Karatsuba square of the slice 'x' into z[zo..zo+2n), with the squares
+	 * of the halves written into the low and high words of z
+	 */
+	private static void squareByKaratsubaInto(Slice x, long[] z, int zo) {
+		int n = x.length;
+		int h = (n + 1) / 2;
+		Slice x1 = x.slice(0, h), x2 = x.slice(h, n);
+
+		/* c = x2^2*base^2h + ((x1+x2)^2 - x2^2 - x1^2)*base^h + x1^2 */
+		ForkJoinTask<Object> c1 = fork(() -> {
+			squareWithScratch(x1, z, zo);
+			return null;
+		}, h);
+		ForkJoinTask<Object> c2 = fork(() -> {
+			squareWithScratch(x2, z, zo + 2 * h);
+			return null;
+		}, n - h);
+		Scratch scratch = Scratch.get();
+		int mark = scratch.mark();
+		try {
+			Slice sum = scratch.take(h + 1, x);
+			Slice.sum(x1, x2, sum.words, sum.offset);
+			Slice c12 = scratch.take(2 * (h + 1), x);
+			squareInto(sum, c12.words, c12.offset);
+			c1.join();
+			c2.join();
+			combineKaratsuba(c12, z, zo, h, 2 * n, x);
+		} finally {
+			scratch.release(mark);
+		}
+	}
+
+	/*
+	 * Internal method to find the square of BigNumber 'a' by Toom-Cook 3-way,
+	 * evaluating only one polynomial and squaring its values
+	 */
+	private static BigNumber squareByToom3(BigNumber a) {
+		int k = (a.words + 2) / 3;
+		BigNumber a0 = BigNumber.words(a, 0, k), a1 = BigNumber.words(a, k, 2 * k);
+		BigNumber a2 = BigNumber.words(a, 2 * k, a.words);
+
+		/* Evaluation: p(1) = p0 + p1, p(-1) = p0 - p1, p(-2) = 2*(p(-1) + p2) - p0 */
+		BigNumber ap = Sum.add(a0, a2);
+		BigNumber a1Value = Sum.add(ap, a1), aM1Value = Sum.subtract(ap, a1);
+		BigNumber aM2Value = Sum.subtract(product(Sum.add(aM1Value, a2), 2), a0);
+
+		/* Pointwise squares, the values at -1 and -2 square to positive */
+		ForkJoinTask<BigNumber> r0 = fork(() -> squareN(a0), k);
+		ForkJoinTask<BigNumber> r1Value = fork(() -> squareN(a1Value), k);
+		ForkJoinTask<BigNumber> rM1Value = fork(() -> squareN(aM1Value), k);
+		ForkJoinTask<BigNumber> rM2Value = fork(() -> squareN(aM2Value), k);
+		BigNumber r4 = squareN(a2);
+		return interpolateToom3(r0.join(), r1Value.join(), rM1Value.join(), rM2Value.join(), r4, k, 2 * a.words + 1);
+	}
+
+	/*
+	 * Add the positive BigNumber 'c' * base^offset into the words of 'z',
+	 * which is long enough to hold the sum
+	 */
+	private static void addShifted(long[] z, BigNumber c, int offset, long base) {
+		long[] x = c.number;
+		long carry = 0;
+		int i = 0;
+		for (; i < c.words; i++) {
+			long s = z[i + offset] + x[i] + carry;
+			carry = s >= base ? 1 : 0;
+			z[i + offset] = s - carry * base;
+		}
+		for (i += offset; carry != 0; i++) {
+			long s = z[i] + carry;
+			carry = s >= base ? 1 : 0;
+			z[i] = s - carry * base;
+		}
+	}
+
+	/*
+	 * Product of all the BigNumbers in 'factors', 1 for none. The factors are
+	 * multiplied by a balanced product tree, so that every product has
+	 * operands of about the same size, and independent subtrees run in
+	 * parallel on the pool.
+	 */
+	public static BigNumber productOf(List<BigNumber> factors) {
+		int count = factors.size();
+		if (count == 0)
+			return new BigNumber(1, BigNumber.DEFAULT_BASE);
+
+		BigNumber[] x = factors.toArray(new BigNumber[count]);
+		/* words[i] is the number of words in x[0..i) */
+		long[] words = new long[count + 1];
+		Sign sign = Sign.PLUS;
+		for (int i = 0; i < count; i++) {
+			if (x[i] == null)
+				return null;
+			words[i + 1] = words[i] + x[i].words;
+			sign = Sign.product(sign, x[i].sign);
+		}
+		if (count == 1)
+			return x[0].clone();
+
+		BigNumber c = compute(() -> productOf(x, 0, count, words), (int) Math.min(words[count], Integer.MAX_VALUE));
+		c.sign = sign;
+		return c;
+	}
+
+	/*
+	 * Product of x[from..to) by a balanced product tree, forking the lower
+	 * half. The sign of the result is set by the caller.
+	 */
+	private static BigNumber productOf(BigNumber[] x, int from, int to, long[] words) {
+		if (to - from == 1)
+			return x[from];
+		int middle = (from + to) >>> 1;
+		int lowWords = (int) Math.min(words[middle] - words[from], Integer.MAX_VALUE);
+		ForkJoinTask<BigNumber> low = fork(() -> productOf(x, from, middle, words), lowWords);
+		BigNumber high = productOf(x, middle, to, words);
+		return product(low.join(), high);
+	}
+
+	/*
+	 * Product of the integers from..to, 1 for an empty range, by the balanced
+	 * product tree of factorial
+	 */
+	public static BigNumber productOfRange(int from, int to, long base) {
+		if (from > to)
+			return new BigNumber(1, base);
+		if (from <= 0 && to >= 0)
+			/* The range includes 0 */
+			return new BigNumber(0, base);
+
+		/* Multiply the magnitudes, a product of negative numbers flips the sign */
+		long low = Math.min(Math.abs((long) from), Math.abs((long) to));
+		long high = Math.max(Math.abs((long) from), Math.abs((long) to));
+		if (high - low + 1 > Integer.MAX_VALUE)
+			throw new ArithmeticException("Range product of too many numbers");
+		long[] factors = new long[(int) (high - low + 1)];
+		for (int i = 0; i < factors.length; i++)
+			factors[i] = low + i;
+		BigNumber c = compute(() -> productOfWords(factors, 0, factors.length, base), factors.length);
+		c.sign = to < 0 && factors.length % 2 == 1 ? Sign.MINUS : Sign.PLUS;
+		return c;
 	}
 
 	/* BigNumber 'a' raised to the power 'b', where 'b' is Long number */
 	public static BigNumber power(BigNumber a, long n) {
+		if (n < 0)
+			throw new ArithmeticException("Power with -ve exponent");
+
 		if (a.words == 0)
 			/* 0^n = 0 */
 			return new BigNumber(0, a.base);
@@ -94,44 +709,292 @@ public class Product {
 			/* a^0 = 1 */
 			return new BigNumber(1, a.base);
 
-		if (n % 2 == 0) {
-			/* n = 2*m => a^n = a^m * a^m */
-			BigNumber temp = power(a, n / 2);
-			return BigNumber.product(temp, temp);
+		long[] e = { n & 0xFFFFFFFFL, n >>> 32 };
+		return power(a, e, e.length);
+	}
 
-		} else {
-			/* n = 2*m + 1 => a^n = a * a^(2*m) */
-			return BigNumber.product(a, power(a, n - 1));
+	/* BigNumber 'a' raised to the power 'b', where 'b' is also a BigNumber */
+	public static BigNumber power(BigNumber a, BigNumber b) {
+		if (b.words == 0)
+			/* a^0 = 1 */
+			return new BigNumber(1, a.base);
+
+		if (a.words == 0)
+			/* 0^b = 0 */
+			return new BigNumber(0, a.base);
+
+		/* The exponent is scanned bit by bit, in words of 32 bits */
+		BigNumber e = b.base == BigNumber.BINARY_BASE ? b : Conversion.toBase(b, BigNumber.BINARY_BASE);
+		return power(a, e.number, e.words);
+	}
 
+	/*
+	 * Exponent bit lengths upto which windows of 1, 2, 3, ... bits are used,
+	 * the window that needs the fewest products for the length
+	 */
+	private static final int[] WINDOW_BITS = { 7, 36, 140, 450, 1303, 3529 };
+
+	/*
+	 * Nonzero BigNumber 'a' raised to the power e, given by its words of 32
+	 * bits e[0..size) from the LSD to the MSD. The bits of e are scanned once
+	 * from the MSB by sliding windows, see powerByWindows. A single word 'a'
+	 * is multiplied in word by word instead, and a power of two in a binary
+	 * radix is a shift.
+	 */
+	private static BigNumber power(BigNumber a, long[] e, int size) {
+		long bitLength = bitLength(e, size);
+		if (bitLength == 0)
+			/* a^0 = 1 */
+			return new BigNumber(1, a.base);
+
+		/* Only odd exponents keep the sign of 'a' */
+		Sign sign = (e[0] & 1) == 1 ? a.sign : Sign.PLUS;
+		BigNumber x = new BigNumber(a.number, a.words, a.base, Sign.PLUS);
+		BigNumber c;
+
+		int twos = powerOfTwo(x);
+		if (twos >= 0) {
+			/* |a| = 2^twos, a^e = 1 << twos*e */
+			if (twos == 0)
+				return new BigNumber(1, a.base, sign);
+			long n = bitLength > 32 ? e[1] << 32 | e[0] : e[0];
+			if (bitLength > 62 || n > (Integer.MAX_VALUE - 2L) * x.bits / twos)
+				throw new ArithmeticException("Power too large");
+			c = shiftLeft(new BigNumber(1, a.base), twos * n);
+
+		} else if (x.words == 1) {
+			/* Left to right binary, the products are by a single word */
+			long word = x.number[0];
+			c = x;
+			for (long i = bitLength - 2; i >= 0; i--) {
+				c = square(c);
+				if (bit(e, i))
+					c = product(c, word);
+			}
+
+		} else
+			c = powerByWindows(x, e, bitLength, Product::square, Product::product);
+
+		if (c == x)
+			/* a^1, not sharing the words of 'a' */
+			c = a.clone();
+		c.sign = sign;
+		return c;
+	}
+
+	/*
+	 * x^e for e > 0 of 'bitLength' bits given by its words of 32 bits, by
+	 * sliding windows with the given squaring and product. Every run of upto
+	 * k bits that starts and ends with a 1 is a single product with one of
+	 * the odd powers x, x^3, ..., x^(2^k - 1), and every bit is a squaring.
+	 */
+	static BigNumber powerByWindows(BigNumber x, long[] e, long bitLength, UnaryOperator<BigNumber> square,
+			BinaryOperator<BigNumber> product) {
+		int k = 1;
+		while (k <= WINDOW_BITS.length && bitLength > WINDOW_BITS[k - 1])
+			k++;
+		/* odd[i] = x^(2i+1) */
+		BigNumber[] odd = new BigNumber[1 << (k - 1)];
+		odd[0] = x;
+		if (odd.length > 1) {
+			BigNumber x2 = square.apply(x);
+			for (int i = 1; i < odd.length; i++)
+				odd[i] = product.apply(odd[i - 1], x2);
+		}
+
+		BigNumber c = null;
+		for (long i = bitLength - 1; i >= 0;) {
+			if (!bit(e, i)) {
+				c = square.apply(c);
+				i--;
+				continue;
+			}
+			/* Window e[i..j] of atmost k bits, ending with a 1 */
+			long j = Math.max(i - k + 1, 0);
+			while (!bit(e, j))
+				j++;
+			int window = 0;
+			for (long l = i; l >= j; l--)
+				window = window << 1 | (bit(e, l) ? 1 : 0);
+			if (c == null)
+				c = odd[window >> 1];
+			else {
+				for (long l = i; l >= j; l--)
+					c = square.apply(c);
+				c = product.apply(c, odd[window >> 1]);
+			}
+			i = j - 1;
 		}
+		return c;
 	}
 
-	/* BigNumber 'a' raised to the power 'b', where 'b' is also a BigNumber */
-	public static BigNumber power(BigNumber a, BigNumber b) {
-		BigNumber result = new BigNumber(1, a.base);
-		ListIterator<Long> wIterator = b.wordIterator(b.words);
-		while (wIterator.hasPrevious())
-			/* a^(b2*base + b1) = (a^b2)^base * a^b1 */
-			result = Product.product(power(result, a.base), power(a, wIterator.previous()));
+	/* Number of bits in the exponent of words of 32 bits e[0..size) */
+	static long bitLength(long[] e, int size) {
+		for (int i = size - 1; i >= 0; i--)
+			if (e[i] != 0)
+				return 32L * i + 64 - Long.numberOfLeadingZeros(e[i]);
+		return 0;
+	}
 
-		return result;
+	/* Bit i of the exponent in words of 32 bits e[] */
+	static boolean bit(long[] e, long i) {
+		return (e[(int) (i >>> 5)] >>> (i & 31) & 1) == 1;
+	}
+
+	/*
+	 * Exponent s if the positive BigNumber 'x' in a binary radix is 2^s, -1
+	 * otherwise
+	 */
+	private static int powerOfTwo(BigNumber x) {
+		if (x.bits == 0)
+			return x.words == 1 && x.number[0] == 1 ? 0 : -1;
+		for (int i = 0; i < x.words - 1; i++)
+			if (x.number[i] != 0)
+				return -1;
+		long msw = x.getMSW();
+		if ((msw & (msw - 1)) != 0)
+			return -1;
+		return (x.words - 1) * x.bits + Long.numberOfTrailingZeros(msw);
 	}
 
-	/* Factorial of BigNumber 'a' */
+	/*
+	 * Factorial of BigNumber 'a' by Luschny's prime swing. With the powers of
+	 * two factored out, n! = 2^(n - popcount(n)) * o(n), where the odd part
+	 * satisfies o(n) = o(n/2)^2 * s(n) and s(n) is the odd part of the swing
+	 * n! / (n/2)!^2, a product of prime powers. Each s(n) is multiplied as a
+	 * balanced product tree over machine words, and the power of two is
+	 * applied at the end as a shift.
+	 */
 	public static BigNumber factorial(BigNumber a) {
 		if (a.sign == Sign.MINUS)
 			/* Factorial of -ve numbers is undefined */
 			throw new ArithmeticException("Factorial of -ve number");
 
-		if (a.words == 0)
-			/* 0! = 1 */
-			return new BigNumber(1, a.base);
+		long n = 0;
+		for (int i = a.words - 1; i >= 0; i--) {
+			if (n > Integer.MAX_VALUE / a.base)
+				throw new ArithmeticException("Factorial of too large number");
+			n = n * a.base + a.number[i];
+			if (n > Integer.MAX_VALUE)
+				throw new ArithmeticException("Factorial of too large number");
+		}
+		return factorial((int) n, a.base);
+	}
 
-		BigNumber one = new BigNumber(1, a.base);
-		BigNumber c = a.clone();
-		for (BigNumber i = BigNumber.subtract(a, one); i.words > 0; i = BigNumber.subtract(i, one))
-			c = Product.product(c, i);
-		c.sign = Sign.PLUS;
-		return c;
+	/*
+	 * n! in the given base, 0! = 1. Below SWING_THRESHOLD the range 1..n is
+	 * multiplied directly, above it the prime swing needs far fewer products.
+	 */
+	public static BigNumber factorial(int n, long base) {
+		if (n < 0)
+			throw new ArithmeticException("Factorial of -ve number");
+		if (n < SWING_THRESHOLD)
+			return productOfRange(1, n, base);
+		int[] primes = oddPrimes(n);
+		/* n! has about n*log2(n) bits, every swing about n bits */
+		BigNumber odd = compute(() -> oddFactorial(n, primes, base), n / 32 * (32 - Integer.numberOfLeadingZeros(n)));
+		return shiftLeft(odd, n - Integer.bitCount(n));
+	}
+
+	/*
+	 * Odd part of n!, o(n) = o(n/2)^2 * s(n). The swing does not depend on
+	 * o(n/2), so it is built in parallel with the recursion.
+	 */
+	private static BigNumber oddFactorial(int n, int[] primes, long base) {
+		if (n < 3)
+			return new BigNumber(1, base);
+		ForkJoinTask<BigNumber> swing = fork(() -> oddSwing(n, primes, base), n / 32);
+		BigNumber half = oddFactorial(n / 2, primes, base);
+		return product(square(half), swing.join());
+	}
+
+	/*
+	 * Odd part of the swing n! / (n/2)!^2. The prime p divides it once for
+	 * every k with floor(n/p^k) odd, so the factor of each prime is atmost n
+	 * and fits in a word of the product tree.
+	 */
+	private static BigNumber oddSwing(int n, int[] primes, long base) {
+		long[] factors = new long[primes.length];
+		int count = 0;
+		for (int p : primes) {
+			if (p > n)
+				break;
+			long factor = 1;
+			for (int q = n / p; q > 0; q /= p)
+				if ((q & 1) == 1)
+					factor *= p;
+			if (factor > 1)
+				factors[count++] = factor;
+		}
+		return productOfWords(factors, 0, count, base);
+	}
+
+	/*
+	 * Product of factors[from..to) by a balanced product tree, with the lower
+	 * half forked. Small ranges are multiplied into a machine word as long as
+	 * it stays below the base, and then one word at a time.
+	 */
+	private static BigNumber productOfWords(long[] factors, int from, int to, long base) {
+		if (to - from > KARATSUBA_THRESHOLD) {
+			int middle = (from + to) >>> 1;
+			/* Every factor is below 2^31, about a word of the product */
+			ForkJoinTask<BigNumber> low = fork(() -> productOfWords(factors, from, middle, base), middle - from);
+			BigNumber high = productOfWords(factors, middle, to, base);
+			return product(low.join(), high);
+		}
+
+		BigNumber c = new BigNumber(1, base);
+		long word = 1;
+		for (int i = from; i < to; i++) {
+			if (word > 1 && word > (base - 1) / factors[i]) {
+				c = product(c, word);
+				word = 1;
+			}
+			word *= factors[i];
+		}
+		return product(c, word);
+	}
+
+	/* Odd primes upto n in increasing order, by the sieve of Eratosthenes */
+	private static int[] oddPrimes(int n) {
+		/* composite[i] for the odd number 2*i + 1 */
+		boolean[] composite = new boolean[n / 2 + 1];
+		int count = 0;
+		for (int i = 1; 2 * i + 1 <= n; i++) {
+			if (composite[i])
+				continue;
+			count++;
+			long p = 2 * i + 1;
+			for (long j = p * p / 2; j < composite.length; j += p)
+				composite[(int) j] = true;
+		}
+		int[] primes = new int[count];
+		count = 0;
+		for (int i = 1; 2 * i + 1 <= n; i++)
+			if (!composite[i])
+				primes[count++] = 2 * i + 1;
+		return primes;
+	}
+
+	/*
+	 * Positive BigNumber 'a' * 2^k. In a binary radix the words are moved by
+	 * k/bits and the bits by k%bits, otherwise 'a' is multiplied by the power.
+	 */
+	private static BigNumber shiftLeft(BigNumber a, long k) {
+		if (a.bits == 0)
+			return product(a, power(new BigNumber(2, a.base), k));
+
+		int bits = a.bits;
+		int wordShift = (int) (k / bits);
+		int bitShift = (int) (k % bits);
+		long[] z = new long[a.words + wordShift + 1];
+		long carry = 0;
+		for (int i = 0; i < a.words; i++) {
+			long w = (a.number[i] << bitShift) | carry;
+			z[i + wordShift] = w & a.mask;
+			carry = w >>> bits;
+		}
+		z[a.words + wordShift] = carry;
+		return new BigNumber(z, z.length, a.base, Sign.PLUS);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,341 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class to store a Script compiled into instructions. Every line becomes one
+ * instruction of WIDTH ints: the opcode, the target register and up to three
+ * operands, which are registers, jump targets or indices into the constants
+ * and operand lists. Registers are the slots of the variables a-z and A-Z,
+ * so that the Executor runs a line without looking at its text again.
+ *
+ * @author G94
+ */
+public class Program {
+    /* Opcodes */
+    static final int NONE = 0; /* var=... with an unknown operator, sets null */
+    static final int PRINT = 1; /* var */
+    static final int PRINT_LIST = 2; /* var) */
+    static final int JUMP = 3; /* var?notzero:zero */
+    static final int CONSTANT = 4; /* var=NumberInDecimal */
+    static final int ADD = 5;
+    static final int SUBTRACT = 6;
+    static final int MULTIPLY = 7;
+    static final int PRODUCT_OF = 8; /* var=var*var*...*var */
+    static final int POWER = 9;
+    static final int MOD_POWER = 10; /* var=var^var%var */
+    static final int DIVIDE = 11;
+    static final int MODULO = 12;
+    static final int FACTORIAL = 13;
+    static final int SQUARE_ROOT = 14;
+
+    /* Opcode, target, and the operands x, y and z */
+    static final int WIDTH = 5;
+    /* Register of an operand that is not given, which reads as null */
+    static final int NO_REGISTER = -1;
+
+    /*
+     * Instruction of the i-th line of the script in the order of the line
+     * numbers at code[i*WIDTH], i = 1..size
+     */
+    final int[] code;
+    final int size; /* Number of lines in the program */
+    final BigNumber[] constants;
+    final int[][] operands; /* Registers of the factors of PRODUCT_OF */
+
+    /*
+     * Last line of the straight-line block that starts at a line, 0 where no
+     * block starts. Blocks start at line 1, at every jump target and after
+     * every jump, so that they are only entered at their first line.
+     */
+    final int[] blockEnd;
+    /* Earlier lines of the same block that must be done before a line runs */
+    final int[][] after;
+
+    private Program(int[] code, int size, BigNumber[] constants, int[][] operands) {
+	this.code = code;
+	this.size = size;
+	this.constants = constants;
+	this.operands = operands;
+	this.blockEnd = new int[size + 1];
+	this.after = new int[size + 1][];
+	findBlocks();
+	for (int first = 1; first <= size; first = blockEnd[first] + 1)
+	    findDependencies(first, blockEnd[first]);
+    }
+
+    /*
+     * Compile the lines of the Script, in the order of their numbers.
+     * Decimal literals are converted once here, straight from the input, and
+     * the jump targets of '?' are resolved to instructions, with the next
+     * line when ':zero' is left out. A jump past the last line ends the
+     * program.
+     */
+    public static Program compile(Script s) {
+	int[] code = new int[(s.size + 1) * WIDTH];
+	List<BigNumber> constants = new ArrayList<>();
+	List<int[]> operands = new ArrayList<>();
+	for (int i = 0; i < s.size; i++)
+	    compile(s, i, code, (i + 1) * WIDTH, constants, operands);
+	return new Program(code, s.size, constants.toArray(new BigNumber[0]), operands.toArray(new int[0][]));
+    }
+
+    /* Compile the line at 'index' in the script of the script into code[at..at+WIDTH) */
+    private static void compile(Script s, int index, int[] code, int at, List<BigNumber> constants,
+	    List<int[]> operands) {
+	CharSequence expression = s.line(index);
+	int length = expression.length();
+	code[at + 1] = register(expression.charAt(0));
+	code[at + 2] = code[at + 3] = code[at + 4] = NO_REGISTER;
+	if (length < 2 || expression.charAt(1) != '=') {
+	    /* Not an assignment */
+	    switch (length) {
+	    case 1: /* var */
+		code[at] = PRINT;
+		break;
+
+	    case 2: /* var) */
+		code[at] = PRINT_LIST;
+		break;
+
+	    default: /* var?notzero:zero */
+		int colon = 2;
+		while (colon < length && expression.charAt(colon) != ':')
+		    colon++;
+		code[at] = JUMP;
+		code[at + 2] = target(s, index, Integer.parseInt(expression, 2, colon, 10));
+		code[at + 3] = colon + 1 < length ? target(s, index, Integer.parseInt(expression, colon + 1, length, 10))
+			: index + 2;
+		break;
+
+	    }
+	    return;
+	}
+
+	if (isLiteral(expression)) {
+	    /* var=NumberInDecimal */
+	    code[at] = CONSTANT;
+	    code[at + 2] = constants.size();
+	    constants.add(Conversion.parse(expression.subSequence(2, length), BigNumber.DEFAULT_BASE));
+	    return;
+	}
+
+	char[] tokens = expression.toString().toCharArray();
+	code[at + 2] = register(tokens[2]);
+	if (length == 5) /* Binary operator */
+	    code[at + 3] = register(tokens[4]);
+	switch (tokens[3]) {
+	case '+':
+	    code[at] = ADD;
+	    break;
+
+	case '-':
+	    code[at] = SUBTRACT;
+	    break;
+
+	case '*':
+	    if (length > 5 && isProductChain(tokens)) {
+		/* var=var*var*...*var */
+		int[] factors = new int[(length - 1) / 2];
+		for (int i = 2; i < length; i += 2)
+		    factors[i / 2 - 1] = register(tokens[i]);
+		code[at] = PRODUCT_OF;
+		code[at + 2] = operands.size();
+		operands.add(factors);
+	    } else
+		code[at] = MULTIPLY;
+	    break;
+
+	case '^':
+	    if (length == 7 && tokens[5] == '%') {
+		/* var=var^var%var */
+		code[at] = MOD_POWER;
+		code[at + 3] = register(tokens[4]);
+		code[at + 4] = register(tokens[6]);
+	    } else
+		code[at] = POWER;
+	    break;
+
+	case '/':
+	    code[at] = DIVIDE;
+	    break;
+
+	case '%':
+	    code[at] = MODULO;
+	    break;
+
+	case '!':
+	    code[at] = FACTORIAL;
+	    break;
+
+	case '~':
+	    code[at] = SQUARE_ROOT;
+	    break;
+
+	default:
+	    code[at] = NONE;
+	    break;
+	}
+    }
+
+    private void findBlocks() {
+	boolean[] leader = new boolean[size + 2];
+	leader[1] = true;
+	for (int line_no = 1; line_no <= size; line_no++) {
+	    int at = line_no * WIDTH;
+	    if (code[at] != JUMP)
+		continue;
+	    leader[line_no + 1] = true;
+	    for (int target : new int[] { code[at + 2], code[at + 3] })
+		if (target >= 1 && target <= size)
+		    leader[target] = true;
+	}
+	for (int line_no = size, end = size; line_no >= 1; line_no--) {
+	    if (leader[line_no]) {
+		blockEnd[line_no] = end;
+		end = line_no - 1;
+	    }
+	}
+    }
+
+    /*
+     * Find for every line of the block first..last the lines it has to wait
+     * for: the last writer of every register it reads, and, for a line
+     * writing a register, its last writer and every line reading it since.
+     * Divisions by the same register share its Divisor and run in order. A
+     * print waits for every line before it, so that the output comes in the
+     * same order and stops at the same failure as a sequential run.
+     */
+    private void findDependencies(int first, int last) {
+	int registers = Executor.MAX_VARIABLE_COUNT;
+	int[] lastWriter = new int[registers];
+	int[] lastDivider = new int[registers];
+	int[][] readers = new int[registers][4];
+	int[] readerCount = new int[registers];
+	int lastPrint = 0;
+	/* Lines found for the current line, seen[l - first] == line_no once found */
+	int[] lines = new int[last - first + 1];
+	int[] seen = new int[last - first + 1];
+
+	for (int line_no = first; line_no <= last; line_no++) {
+	    int at = line_no * WIDTH;
+	    int op = code[at];
+	    int count = 0;
+	    if (op == PRINT || op == PRINT_LIST || op == JUMP) {
+		/* The last print waited for the lines before it */
+		for (int l = Math.max(lastPrint, first); l < line_no; l++)
+		    count = add(lines, count, l, seen, first, line_no);
+		lastPrint = line_no;
+	    }
+	    int[] reads = reads(at);
+	    for (int r : reads)
+		count = add(lines, count, lastWriter[r], seen, first, line_no);
+	    if (op == DIVIDE || op == MODULO)
+		count = add(lines, count, lastDivider[code[at + 3]], seen, first, line_no);
+	    if (writes(op)) {
+		int target = code[at + 1];
+		count = add(lines, count, lastWriter[target], seen, first, line_no);
+		for (int i = 0; i < readerCount[target]; i++)
+		    count = add(lines, count, readers[target][i], seen, first, line_no);
+	    }
+	    after[line_no] = Arrays.copyOf(lines, count);
+
+	    for (int r : reads) {
+		if (readerCount[r] == readers[r].length)
+		    readers[r] = Arrays.copyOf(readers[r], 2 * readerCount[r]);
+		readers[r][readerCount[r]++] = line_no;
+	    }
+	    if (op == DIVIDE || op == MODULO)
+		lastDivider[code[at + 3]] = line_no;
+	    if (writes(op)) {
+		int target = code[at + 1];
+		lastWriter[target] = line_no;
+		readerCount[target] = 0;
+	    }
+	}
+    }
+
+    /*
+     * Add line 'l' of the block to the lines[0..count) that line 'line_no'
+     * waits for, unless it is the line itself, a value from before the block
+     * (0), or found already
+     */
+    private static int add(int[] lines, int count, int l, int[] seen, int first, int line_no) {
+	if (l < first || l == line_no || seen[l - first] == line_no)
+	    return count;
+	seen[l - first] = line_no;
+	lines[count] = l;
+	return count + 1;
+    }
+
+    /* Registers read by the instruction at code[at] */
+    int[] reads(int at) {
+	switch (code[at]) {
+	case PRINT:
+	case PRINT_LIST:
+	case JUMP:
+	    return new int[] { code[at + 1] };
+	case CONSTANT:
+	    return new int[0];
+	case PRODUCT_OF:
+	    return operands[code[at + 2]];
+	default:
+	    int n = 0;
+	    int[] r = new int[3];
+	    for (int k = 2; k <= 4; k++)
+		if (code[at + k] != NO_REGISTER)
+		    r[n++] = code[at + k];
+	    return Arrays.copyOf(r, n);
+	}
+    }
+
+    /* Whether the opcode assigns its target register */
+    static boolean writes(int op) {
+	return op != PRINT && op != PRINT_LIST && op != JUMP;
+    }
+
+    /* Whether the expression is var=var*var*...*var, with '*' between all operands */
+    private static boolean isProductChain(char[] tokens) {
+	if (tokens.length % 2 == 0)
+	    return false;
+	for (int i = 3; i < tokens.length; i += 2)
+	    if (tokens[i] != '*')
+		return false;
+	return true;
+    }
+
+    /* Whether the expression is var=NumberInDecimal */
+    private static boolean isLiteral(CharSequence expression) {
+	int length = expression.length();
+	if (length < 3)
+	    return false;
+	for (int i = 2; i < length; i++) {
+	    char c = expression.charAt(i);
+	    if (c < '0' || c > '9')
+		return false;
+	}
+	return true;
+    }
+
+    /*
+     * Instruction of the jump target 'number' of the i-th line of script
+     * 's', or the end of the program for a number past the last line
+     */
+    private static int target(Script s, int i, int number) {
+	int index = s.indexOf(number);
+	if (index >= 0)
+	    return index + 1;
+	if (-index - 1 == s.size)
+	    return s.size + 1;
+	throw new IllegalArgumentException("Line " + s.number(i) + " jumps to line " + number + ", which is not in the script");
+    }
+
+    /* Register of the variable a-z or A-Z */
+    static int register(char var) {
+	if (var >= 'a' && var <= 'z')
+	    return var - 'a';
+	if (var >= 'A' && var <= 'Z')
+	    return 26 + var - 'A';
+	throw new IllegalArgumentException("Not a variable: " + var);
+    }
+}
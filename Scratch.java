@@ -0,0 +1,59 @@
+/**
+ * Class to implement a per thread arena of words for the temporaries of the
+ * product and division kernels. Temporaries are taken from the top of the
+ * arena and given back in the reverse order by resetting the top to a mark,
+ * so that the sums and partial products of a whole recursion share one array
+ * that is sized once from the operands, instead of being allocated one by one.
+ *
+ * @author G94
+ */
+public class Scratch {
+	/* Largest arena kept by a thread once its operation is over */
+	public static int RETAINED_WORDS = 1 << 16;
+
+	private static final ThreadLocal<Scratch> ARENA = ThreadLocal.withInitial(Scratch::new);
+
+	private long[] words = new long[0];
+	private int top = 0;
+
+	/* Arena of the current thread */
+	static Scratch get() {
+		return ARENA.get();
+	}
+
+	/*
+	 * Make room for 'n' words above the top, and return the mark to release
+	 * them with. The arena grows only while nothing is taken from it, as the
+	 * array of a taken slice must stay the same until it is released.
+	 */
+	int reserve(int n) {
+		if (top == 0 && words.length < n)
+			words = new long[n];
+		return top;
+	}
+
+	/* Top of the arena, to release the words taken after it */
+	int mark() {
+		return top;
+	}
+
+	/*
+	 * Slice of 'n' words in the radix of 'like' above the top, or of a new
+	 * array when the arena has no room left. The words are not cleared.
+	 */
+	Slice take(int n, Slice like) {
+		if (top + n > words.length)
+			return new Slice(new long[n], 0, n, like);
+		Slice s = new Slice(words, top, n, like);
+		top += n;
+		return s;
+	}
+
+	/* Give back every word taken after 'mark' */
+	void release(int mark) {
+		top = mark;
+		if (top == 0 && words.length > RETAINED_WORDS)
+			/* Do not hold on to the arena of a huge operation */
+			words = new long[0];
+	}
+}
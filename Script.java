@@ -1,17 +1,82 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Class to store the sequence of expressions
- * 
+ * Class to store the sequence of expressions. The expressions are kept as
+ * ranges of the bytes of the input, in the order of their line numbers, so
+ * that even a literal of millions of digits is read by the number parser
+ * where it lies in the input.
+ *
  * @author G94
  */
 public class Script {
-    public final String[] lines; /* Array of expressions */
+    final ByteBuffer text; /* Bytes of the input */
+    final int[] numbers; /* Line numbers in increasing order */
+    final int[] from, to; /* The i-th line is text[from[i]..to[i]) */
     public final int size; /* Number of lines in the script */
 
-    public static final int MAX_LINE_COUNT = 1000;
-
-    public Script(String[] lines, int size) {
+    Script(ByteBuffer text, int[] numbers, int[] from, int[] to, int size) {
 	super();
-	this.lines = lines;
+	this.text = text;
+	this.numbers = numbers;
+	this.from = from;
+	this.to = to;
 	this.size = size;
     }
-}
\ No newline at end of file
+
+    /* Expression of the i-th line, 0 <= i < size, as a view of the bytes */
+    public CharSequence line(int i) {
+	return new Bytes(text, from[i], to[i]);
+    }
+
+    /* Line number of the i-th line */
+    public int number(int i) {
+	return numbers[i];
+    }
+
+    /*
+     * Index of the line with the given number, or -(i + 1) for i the index
+     * of the first line with a larger number
+     */
+    public int indexOf(int number) {
+	return Arrays.binarySearch(numbers, 0, size, number);
+    }
+
+    /**
+     * A CharSequence over the ASCII bytes text[from..to) that does not copy
+     * them
+     */
+    static class Bytes implements CharSequence {
+	private final ByteBuffer text;
+	private final int from, to;
+
+	Bytes(ByteBuffer text, int from, int to) {
+	    this.text = text;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	public int length() {
+	    return to - from;
+	}
+
+	@Override
+	public char charAt(int index) {
+	    return (char) (text.get(from + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+	    return new Bytes(text, from + start, from + end);
+	}
+
+	@Override
+	public String toString() {
+	    char[] chars = new char[to - from];
+	    for (int i = 0; i < chars.length; i++)
+		chars[i] = charAt(i);
+	    return new String(chars);
+	}
+    }
+}
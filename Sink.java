@@ -0,0 +1,153 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Class to implement a buffered sink for the output of a script. Digits and
+ * text are written as bytes into one reusable buffer, which goes to the
+ * stream only when it fills up or when the sink is flushed, so that a loop
+ * printing on every iteration does not pay for a synchronized, flushing
+ * System.out on every line.
+ *
+ * @author G94
+ */
+public class Sink {
+    /* Size of the buffer of a new sink, in bytes */
+    public static int DEFAULT_CAPACITY = 1 << 16;
+    /* Room for the digits of any long */
+    private static final int MIN_CAPACITY = 64;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+
+    public Sink(OutputStream out) {
+	this(out, DEFAULT_CAPACITY);
+    }
+
+    public Sink(OutputStream out, int capacity) {
+	this.out = out;
+	this.buffer = new byte[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    public Sink(WritableByteChannel out) {
+	this(Channels.newOutputStream(out));
+    }
+
+    /*
+     * Sink appending the bytes as characters, e.g. to a StringBuilder or
+     * Writer. Not a constructor, since a PrintStream is both an OutputStream
+     * and an Appendable.
+     */
+    public static Sink appending(Appendable out) {
+	return new Sink(new AppendableStream(out));
+    }
+
+    /* Write the ASCII character 'c' */
+    public Sink write(char c) {
+	room(1);
+	buffer[count++] = (byte) c;
+	return this;
+    }
+
+    /* Write the ASCII characters of 's' */
+    public Sink write(CharSequence s) {
+	int length = s.length();
+	for (int i = 0; i < length;) {
+	    room(1);
+	    int end = Math.min(length, i + buffer.length - count);
+	    while (i < end)
+		buffer[count++] = (byte) s.charAt(i++);
+	}
+	return this;
+    }
+
+    /* Write the decimal digits of 'n' >= 0 */
+    public Sink write(long n) {
+	return write(n, 1);
+    }
+
+    /*
+     * Write the decimal digits of 'n' >= 0, padded with leading zeros to
+     * atleast 'width' digits
+     */
+    public Sink write(long n, int width) {
+	int digits = 1;
+	for (long t = n; t >= 10; t /= 10)
+	    digits++;
+	int length = Math.max(digits, width);
+	room(length);
+	/* Digits from the LSD, right to left */
+	for (int i = count + length - 1; i >= count; i--) {
+	    buffer[i] = (byte) ('0' + n % 10);
+	    n /= 10;
+	}
+	count += length;
+	return this;
+    }
+
+    /* End the line */
+    public Sink newLine() {
+	return write('\n');
+    }
+
+    /* Write out the buffer and flush the stream */
+    public void flush() {
+	drain();
+	try {
+	    out.flush();
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    /* Make room for 'n' <= MIN_CAPACITY bytes, writing out the buffer if full */
+    private void room(int n) {
+	if (count + n > buffer.length)
+	    drain();
+    }
+
+    /* Write the buffer to the stream */
+    private void drain() {
+	if (count == 0)
+	    return;
+	try {
+	    out.write(buffer, 0, count);
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+	count = 0;
+    }
+
+    /**
+     * An OutputStream over an Appendable, appending every ASCII byte as a
+     * character
+     */
+    private static class AppendableStream extends OutputStream {
+	private final Appendable out;
+
+	AppendableStream(Appendable out) {
+	    this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    out.append((char) (b & 0xff));
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    for (int i = off; i < off + len; i++)
+		out.append((char) (b[i] & 0xff));
+	}
+
+	@Override
+	public void flush() throws IOException {
+	    if (out instanceof Flushable)
+		((Flushable) out).flush();
+	}
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Class to implement a view of the words x[offset..offset+length) of an array,
+ * LSD -> MSD, so that the halves of a number are taken in O(1) without
+ * copying. Kernels read through slices and write their results into pre-sized
+ * arrays at an offset, the offset standing for a shift by base^offset.
+ *
+ * @author G94
+ */
+public class Slice {
+	final long[] words;
+	final int offset;
+	final int length;
+	final long base;
+	final int bits; /* log2(base) for a binary radix, 0 otherwise */
+	final long mask;
+
+	/* View of the significant words of BigNumber 'x' */
+	Slice(BigNumber x) {
+		this(x.number, 0, x.words, x.base, x.bits, x.mask);
+	}
+
+	/* View of words[offset..offset+length) in the radix of 'like' */
+	Slice(long[] words, int offset, int length, Slice like) {
+		this(words, offset, length, like.base, like.bits, like.mask);
+	}
+
+	private Slice(long[] words, int offset, int length, long base, int bits, long mask) {
+		this.words = words;
+		this.offset = offset;
+		this.length = length;
+		this.base = base;
+		this.bits = bits;
+		this.mask = mask;
+	}
+
+	/* View of the words [from..to) of this slice, cut at its length */
+	Slice slice(int from, int to) {
+		to = Math.min(to, length);
+		from = Math.min(from, to);
+		return new Slice(words, offset + from, to - from, base, bits, mask);
+	}
+
+	/* View of this slice without its leading zeros */
+	Slice significant() {
+		int n = length;
+		while (n > 0 && words[offset + n - 1] == 0)
+			n--;
+		return slice(0, n);
+	}
+
+	/*
+	 * z[zo..) += this. The carry runs on until it is absorbed, so z must be
+	 * long enough to hold the sum.
+	 */
+	void addTo(long[] z, int zo) {
+		long[] x = words;
+		long carry = 0;
+		int i = 0;
+		if (bits != 0) {
+			for (; i < length; i++) {
+				long s = z[zo + i] + x[offset + i] + carry;
+				carry = s >>> bits;
+				z[zo + i] = s & mask;
+			}
+			for (i += zo; carry != 0; i++) {
+				long s = z[i] + carry;
+				carry = s >>> bits;
+				z[i] = s & mask;
+			}
+		} else {
+			for (; i < length; i++) {
+				long s = z[zo + i] + x[offset + i] + carry;
+				carry = s >= base ? 1 : 0;
+				z[zo + i] = s - carry * base;
+			}
+			for (i += zo; carry != 0; i++) {
+				long s = z[i] + carry;
+				carry = s >= base ? 1 : 0;
+				z[i] = s - carry * base;
+			}
+		}
+	}
+
+	/*
+	 * z[zo..) -= this. The borrow runs on until it is absorbed, so the words
+	 * of z must be atleast this.
+	 */
+	void subtractFrom(long[] z, int zo) {
+		long[] x = words;
+		long borrow = 0;
+		int i = 0;
+		for (; i < length; i++) {
+			long d = z[zo + i] - x[offset + i] - borrow;
+			borrow = d < 0 ? 1 : 0;
+			z[zo + i] = d + borrow * base;
+		}
+		for (i += zo; borrow != 0; i++) {
+			long d = z[i] - borrow;
+			borrow = d < 0 ? 1 : 0;
+			z[i] = d + borrow * base;
+		}
+	}
+
+	/* z[zo..zo+max(x.length, y.length)+1) = x + y */
+	static void sum(Slice x, Slice y, long[] z, int zo) {
+		if (x.length < y.length) {
+			Slice t = x;
+			x = y;
+			y = t;
+		}
+		System.arraycopy(x.words, x.offset, z, zo, x.length);
+		z[zo + x.length] = 0;
+		y.addTo(z, zo);
+	}
+}
@@ -1,8 +1,3 @@
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.ListIterator;
-
 /**
  * Class to implement addition and subtraction operations of BigNumbers
  * 
@@ -23,7 +18,7 @@ public class Sum {
 
 	if (a.sign != b.sign)
 	    /* a + (-b) = a - b */
-	    return difference(a, b);
+	    return difference(a, b, a.sign, b.sign);
 
 	return sum(a, b);
     }
@@ -43,16 +38,12 @@ public class Sum {
 	    /* a - 0 = a */
 	    return a.clone();
 
-	BigNumber c;
-	b.sign = Sign.negate(b.sign);
-	if (a.sign == b.sign)
+	/* The operands are only read, -b is taken by its sign */
+	if (a.sign != b.sign)
 	    /* a - (-b) = a + b */
-	    c = sum(a, b);
-	else
-	    /* a - (b) = a - b */
-	    c = difference(a, b);
-	b.sign = Sign.negate(b.sign);
-	return c;
+	    return sum(a, b);
+	/* a - (b) = a - b */
+	return difference(a, b, a.sign, Sign.negate(b.sign));
     }
 
     /*
@@ -60,94 +51,109 @@ public class Sum {
      * irrespective of the signs
      */
     private static BigNumber sum(BigNumber a, BigNumber b) {
+	Sign sign = a.sign;
+	if (a.words < b.words) {
+	    /* keep the longer number in 'a' */
+	    BigNumber t = a;
+	    a = b;
+	    b = t;
+	}
+
 	long base = a.base;
-	BigNumber c = new BigNumber(null, base);
-	c.sign = a.sign;
-	Iterator<Long> aIterator = a.wordIterator();
-	Iterator<Long> bIterator = b.wordIterator();
+	long[] x = a.number, y = b.number;
+	long[] z = new long[a.words + 1];
 	long carry = 0; /* carry from the previous word */
-	while (aIterator.hasNext() && bIterator.hasNext()) {
-	    /* cComponent: partial sum of the current words */
-	    long cComponent = aIterator.next() + bIterator.next() + carry;
-	    carry = cComponent / base;
-	    c.addWord(cComponent % base);
-	}
+	int i = 0;
+	if (a.bits != 0) {
+	    /* Binary radix: the carry is the bit above the word */
+	    int bits = a.bits;
+	    long mask = a.mask;
+	    for (; i < b.words; i++) {
+		/* cComponent: partial sum of the current words */
+		long cComponent = x[i] + y[i] + carry;
+		carry = cComponent >>> bits;
+		z[i] = cComponent & mask;
+	    }
+	    /* words left in a */
+	    for (; i < a.words && carry != 0; i++) {
+		long cComponent = x[i] + carry;
+		carry = cComponent >>> bits;
+		z[i] = cComponent & mask;
+	    }
 
-	Iterator<Long> rIterator = null;
-	if (aIterator.hasNext())
-	    /* words left in list a */
-	    rIterator = aIterator;
-	else if (bIterator.hasNext())
-	    /* words left in list b */
-	    rIterator = bIterator;
-	if (rIterator != null) {
-	    while (rIterator.hasNext() && carry != 0) {
-		long cComponent = rIterator.next() + carry;
-		carry = cComponent / base;
-		c.addWord(cComponent % base);
+	} else {
+	    for (; i < b.words; i++) {
+		/* cComponent: partial sum of the current words */
+		long cComponent = x[i] + y[i] + carry;
+		carry = cComponent >= base ? 1 : 0;
+		z[i] = cComponent - carry * base;
+	    }
+	    /* words left in a */
+	    for (; i < a.words && carry != 0; i++) {
+		long cComponent = x[i] + carry;
+		carry = cComponent >= base ? 1 : 0;
+		z[i] = cComponent - carry * base;
 	    }
-	    /* no more carry to add forward */
-	    while (rIterator.hasNext())
-		c.addWord(rIterator.next());
+
 	}
+	/* no more carry to add forward */
+	System.arraycopy(x, i, z, i, a.words - i);
 
 	/* if the carry is non zero, add that to the final result */
-	if (carry != 0)
-	    c.addWord(carry);
-	return c;
+	z[a.words] = carry;
+	return new BigNumber(z, z.length, base, sign);
     }
 
     /*
      * Internal method to find the difference of BigNumber 'a' and BigNumber
      * 'b', irrespective of the signs and also with the assumption that 'a' >
-     * 'b' to avoid borrow look-ahead.
+     * 'b' to avoid borrow look-ahead. The difference takes aSign if 'a' is
+     * the larger, bSign otherwise.
      */
-    private static BigNumber difference(BigNumber a, BigNumber b) {
+    private static BigNumber difference(BigNumber a, BigNumber b, Sign aSign, Sign bSign) {
 	if (a.words == b.words && a.getMSW() == b.getMSW())
 	    /*
 	     * Unable to find max of a & b in O(1) time, so use B's complement
 	     * subtraction, O(3n), instead of Regular subtraction with
 	     * look-ahead, O(4n)
 	     */
-	    return differenceByBC(a, b);
+	    return differenceByBC(a, b, aSign, bSign);
 	if (a.words < b.words || (a.words == b.words && a.getMSW() < b.getMSW()))
 	    /* clearly b is larger than a => a - b = -(b - a) */
-	    return difference(b, a);
+	    return difference(b, a, bSign, aSign);
 
 	long base = a.base;
-	BigNumber c = new BigNumber(null, base);
-	c.sign = a.sign;
-	Iterator<Long> aIterator = a.wordIterator();
-	Iterator<Long> bIterator = b.wordIterator();
+	long[] x = a.number, y = b.number;
+	long[] z = new long[a.words];
 	long borrow = 0; /* borrow by the previous word */
+	int i = 0;
 	/* a is atleast as large as b, so enough to iterate over b */
-	while (bIterator.hasNext()) {
+	for (; i < b.words; i++) {
 	    /* cComponent: partial difference of the current words */
-	    long cComponent = aIterator.next() - bIterator.next() - borrow;
+	    long cComponent = x[i] - y[i] - borrow;
 	    if (cComponent < 0) {
 		borrow = 1;
-		c.addWord(base + cComponent);
+		z[i] = base + cComponent;
 	    } else {
 		borrow = 0;
-		c.addWord(cComponent);
+		z[i] = cComponent;
 	    }
 	}
 
-	while (aIterator.hasNext() && borrow != 0) {
+	for (; i < a.words && borrow != 0; i++) {
 	    /* words left in a */
-	    long cComponent = aIterator.next() - borrow;
+	    long cComponent = x[i] - borrow;
 	    if (cComponent < 0) {
 		borrow = 1;
-		c.addWord(base + cComponent);
+		z[i] = base + cComponent;
 	    } else {
 		borrow = 0;
-		c.addWord(cComponent);
+		z[i] = cComponent;
 	    }
 	}
-	while (aIterator.hasNext())
-	    c.addWord(aIterator.next());
+	System.arraycopy(x, i, z, i, a.words - i);
 
-	return c;
+	return new BigNumber(z, z.length, base, aSign);
     }
 
     /*
@@ -157,62 +163,59 @@ public class Sum {
      * complement to direct numbers. Hence, this method is used only when we do
      * not know which of the 2 numbers is the larger.
      */
-    private static BigNumber differenceByBC(BigNumber a, BigNumber b) {
+    private static BigNumber differenceByBC(BigNumber a, BigNumber b, Sign aSign, Sign bSign) {
 	long base = a.base;
-	ListIterator<Long> aIterator = a.wordIterator();
-	ListIterator<Long> bIterator = b.wordIterator();
-	List<Long> c = new ArrayList<>(a.words);
+	long[] x = a.number, y = b.number;
+	int n = a.words;
+	long[] z = new long[n];
 	long carry = 0; /* carry from the previous word */
-	while (bIterator.hasNext() && bIterator.next() == 0)
+	int i = 0;
+	for (; y[i] == 0; i++)
 	    /* add a's current word to c as long as b's current word is zero */
-	    c.add(aIterator.next());
+	    z[i] = x[i];
 
 	/*
 	 * cComponent: partial sum of a's current word and B's complement of b's
 	 * least significant non-zero word
 	 */
-	long cComponent = aIterator.next() + base - bIterator.previous() + carry;
-	carry = cComponent / base;
-	c.add(cComponent % base);
-	bIterator.next();
+	long cComponent = x[i] + base - y[i] + carry;
+	carry = cComponent >= base ? 1 : 0;
+	z[i] = cComponent - carry * base;
 
-	while (aIterator.hasNext()) {
+	for (i++; i < n; i++) {
 	    /*
 	     * cComponent: partial sum of a's current word and (B-1)'s
-	     * complement of b's current word
+	     * complement of b's current word. It is below 2*base, so the carry
+	     * is found by a comparison instead of a division.
 	     */
-	    cComponent = aIterator.next() + base - 1 - bIterator.next() + carry;
-	    carry = cComponent / base;
-	    c.add(cComponent % base);
+	    cComponent = x[i] + base - 1 - y[i] + carry;
+	    carry = cComponent >= base ? 1 : 0;
+	    z[i] = cComponent - carry * base;
 	}
 
 	/* Positive difference, a > b */
-	Sign sign = a.sign;
+	Sign sign = aSign;
 	if (carry == 0) {
 	    /*
 	     * Negative difference, a < b. Convert from B's complement to
 	     * positive.
 	     */
-	    int i = 0;
+	    i = 0;
 	    /* Iterate over least significant zeroes */
-	    for (; i < c.size() && c.get(i) == 0; i++)
+	    for (; i < n && z[i] == 0; i++)
 		;
-	    if (i < c.size()) {
+	    if (i < n) {
 		/* B's complement of c's least significant non-zero word */
-		c.set(i, base - c.get(i));
-		for (i++; i < c.size(); i++)
+		z[i] = base - z[i];
+		for (i++; i < n; i++)
 		    /*
 		     * (B-1)'s complement of c's least significant non-zero word
 		     */
-		    c.set(i, base - 1 - c.get(i));
-		sign = b.sign;
-
-	    } else {
-		/* List c has only 0's */
-		c = null;
+		    z[i] = base - 1 - z[i];
+		sign = bSign;
 
 	    }
 	}
-	return new BigNumber(c, base, sign);
+	return new BigNumber(z, n, base, sign);
     }
 }
\ No newline at end of file